@@ -0,0 +1,79 @@
+package io.brinkmann.aem.maven.benchmark;
+
+import io.brinkmann.aem.maven.impl.BundleArchiveBuilder;
+import io.brinkmann.aem.maven.impl.ChecksumOutputStream;
+import io.brinkmann.aem.maven.impl.NamedThreadFactory;
+import io.brinkmann.aem.maven.model.ArtifactChecksums;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.osgi.framework.Bundle;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Rebuilds the JAR file of the largest synthetic bundle and computes the checksums served next to the artifacts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BundleArchiveBenchmark {
+
+    @Param({"1", "4"})
+    private int threads;
+
+    @Param({"-1", "1"})
+    private int compressionLevel;
+
+    private ExecutorService executor;
+
+    private BundleArchiveBuilder bundleArchiveBuilder;
+
+    private Bundle bundle;
+
+    private byte[] pom;
+
+    @Setup
+    public void setUp() {
+        SyntheticFramework framework = new SyntheticFramework(200);
+        bundle = framework.getLargestBundle();
+        executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("benchmark-archive"));
+        bundleArchiveBuilder = new BundleArchiveBuilder(executor, compressionLevel == -1 ? Deflater.DEFAULT_COMPRESSION : compressionLevel, threads * 4);
+        pom = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project>\n\t<modelVersion>4.0.0</modelVersion>\n"
+                + "\t<groupId>com.adobe.granite</groupId>\n\t<artifactId>granite.bundle0</artifactId>\n"
+                + "\t<version>1.0.0</version>\n\t<dependencies/>\n</project>\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        bundleArchiveBuilder.shutdown();
+    }
+
+    @Benchmark
+    public void writeArchive() throws IOException {
+        bundleArchiveBuilder.writeArchive(bundle, new NullOutputStream());
+    }
+
+    /**
+     * Archive build including all checksums, as it happens the first time a JAR or its checksum is requested.
+     */
+    @Benchmark
+    public ArtifactChecksums writeArchiveWithChecksums() throws IOException {
+        ChecksumOutputStream checksumOutputStream = new ChecksumOutputStream(new NullOutputStream());
+        bundleArchiveBuilder.writeArchive(bundle, checksumOutputStream);
+        return checksumOutputStream.getChecksums();
+    }
+
+    @Benchmark
+    public String pomSha1() {
+        return ArtifactChecksums.of(pom).getSha1();
+    }
+}
@@ -0,0 +1,63 @@
+package io.brinkmann.aem.maven.benchmark;
+
+import io.brinkmann.aem.maven.impl.DuplicateArtifactFilter;
+import io.brinkmann.aem.maven.impl.POMGeneratorImpl;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold scan of all bundles into the dependency list and the duplicate filter applied to it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DependencyListBenchmark {
+
+    @Param({"200", "600"})
+    private int bundleCount;
+
+    private SyntheticFramework framework;
+
+    private Set<ArtifactInformation> declaredArtifacts;
+
+    @Setup
+    public void setUp() {
+        framework = new SyntheticFramework(bundleCount);
+        declaredArtifacts = framework.getDeclaredArtifacts();
+    }
+
+    /**
+     * Activation of a generator and the first read of the dependency list, which scans all bundles.
+     */
+    @Benchmark
+    public Set<ArtifactInformation> generatedDependencyListColdScan() throws IOException {
+        POMGeneratorImpl pomGenerator = framework.activatePomGenerator();
+        try {
+            return pomGenerator.getGeneratedDependencyList(framework.getBundleContext());
+        } finally {
+            framework.deactivatePomGenerator(pomGenerator);
+        }
+    }
+
+    @Benchmark
+    public Set<ArtifactInformation> filterDuplicateArtifacts() {
+        Set<ArtifactInformation> dependencies = new TreeSet<>(declaredArtifacts);
+        DuplicateArtifactFilter.filter(dependencies);
+        return dependencies;
+    }
+
+    @Benchmark
+    public Set<ArtifactInformation> filterDuplicateArtifactsLegacy() {
+        Set<ArtifactInformation> dependencies = new TreeSet<>(declaredArtifacts);
+        LegacyDuplicateArtifactFilter.filter(dependencies);
+        return dependencies;
+    }
+}
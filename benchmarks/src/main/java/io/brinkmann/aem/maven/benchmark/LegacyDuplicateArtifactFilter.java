@@ -0,0 +1,37 @@
+package io.brinkmann.aem.maven.benchmark;
+
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Duplicate filter as it was implemented before the single pass grouping, kept as baseline. It compares every
+ * dependency with every other one, the versions are compared with the current {@link io.brinkmann.aem.maven.model.MavenVersion}.
+ */
+final class LegacyDuplicateArtifactFilter {
+
+    private LegacyDuplicateArtifactFilter() {
+    }
+
+    static void filter(Set<ArtifactInformation> dependenciesToBeFiltered) {
+        List<ArtifactInformation> dependenciesToBeRemoved = new ArrayList<>();
+
+        for (ArtifactInformation dependencyToBeFiltered : dependenciesToBeFiltered) {
+            boolean removeDependency = false;
+            for (ArtifactInformation dependencyArtifact : dependenciesToBeFiltered) {
+                removeDependency = dependencyArtifact.isArtifactAndGroupIdEqual(dependencyToBeFiltered)
+                        && dependencyArtifact.getMavenVersion().compareTo(dependencyToBeFiltered.getMavenVersion()) > 0;
+
+                if (removeDependency) {
+                    break;
+                }
+            }
+            if (removeDependency) {
+                dependenciesToBeRemoved.add(dependencyToBeFiltered);
+            }
+        }
+        dependenciesToBeFiltered.removeAll(dependenciesToBeRemoved);
+    }
+}
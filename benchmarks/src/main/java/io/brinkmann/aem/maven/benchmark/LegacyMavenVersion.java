@@ -0,0 +1,52 @@
+package io.brinkmann.aem.maven.benchmark;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Regex based version parser as it was implemented before the tokenizer, kept as baseline. It only compares
+ * major, minor and fix version.
+ */
+final class LegacyMavenVersion implements Comparable<LegacyMavenVersion> {
+
+    private Pattern versionNumberRegexPattern = Pattern.compile("(\\d+)(\\.{1}(\\d+)){0,1}(\\.{1}(\\d+)){0,1}.*");
+
+    private int majorVersion = 0;
+
+    private int minorVersion = 0;
+
+    private int fixVersion = 0;
+
+    LegacyMavenVersion(String rawVersion) {
+        if (StringUtils.isEmpty(rawVersion)) {
+            return;
+        }
+
+        Matcher versionNumberMatcher = versionNumberRegexPattern.matcher(rawVersion);
+        if (versionNumberMatcher.matches()) {
+            if (versionNumberMatcher.group(1) != null) {
+                majorVersion = Integer.valueOf(versionNumberMatcher.group(1));
+            }
+            if (versionNumberMatcher.group(3) != null) {
+                minorVersion = Integer.valueOf(versionNumberMatcher.group(3));
+            }
+            if (versionNumberMatcher.group(5) != null) {
+                fixVersion = Integer.valueOf(versionNumberMatcher.group(5));
+            }
+        }
+    }
+
+    @Override
+    public int compareTo(LegacyMavenVersion otherMavenVersion) {
+        int result = this.majorVersion - otherMavenVersion.majorVersion;
+        if (result == 0) {
+            result = this.minorVersion - otherMavenVersion.minorVersion;
+        }
+        if (result == 0) {
+            result = this.fixVersion - otherMavenVersion.fixVersion;
+        }
+        return result;
+    }
+}
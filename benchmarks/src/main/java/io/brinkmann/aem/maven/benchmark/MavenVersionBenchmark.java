@@ -0,0 +1,78 @@
+package io.brinkmann.aem.maven.benchmark;
+
+import io.brinkmann.aem.maven.model.MavenVersion;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and comparing the versions of the synthetic bundles, each invocation handles all of them. The regex based
+ * parser of the previous implementation serves as baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MavenVersionBenchmark {
+
+    private String[] versions;
+
+    private MavenVersion[] mavenVersions;
+
+    private LegacyMavenVersion[] legacyMavenVersions;
+
+    @Setup
+    public void setUp() {
+        List<String> frameworkVersions = new SyntheticFramework(600).getVersions();
+        versions = frameworkVersions.toArray(new String[frameworkVersions.size()]);
+        mavenVersions = new MavenVersion[versions.length];
+        legacyMavenVersions = new LegacyMavenVersion[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            mavenVersions[i] = new MavenVersion(versions[i]);
+            legacyMavenVersions[i] = new LegacyMavenVersion(versions[i]);
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(new MavenVersion(version));
+        }
+    }
+
+    @Benchmark
+    public void parseCached(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(MavenVersion.valueOf(version));
+        }
+    }
+
+    @Benchmark
+    public void parseLegacy(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(new LegacyMavenVersion(version));
+        }
+    }
+
+    @Benchmark
+    public int compare() {
+        int result = 0;
+        for (int i = 1; i < mavenVersions.length; i++) {
+            result += mavenVersions[i - 1].compareTo(mavenVersions[i]);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int compareLegacy() {
+        int result = 0;
+        for (int i = 1; i < legacyMavenVersions.length; i++) {
+            result += legacyMavenVersions[i - 1].compareTo(legacyMavenVersions[i]);
+        }
+        return result;
+    }
+}
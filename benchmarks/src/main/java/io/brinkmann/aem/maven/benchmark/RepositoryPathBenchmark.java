@@ -0,0 +1,74 @@
+package io.brinkmann.aem.maven.benchmark;
+
+import io.brinkmann.aem.maven.impl.POMGeneratorImpl;
+import io.brinkmann.aem.maven.model.ArtifactIndex;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the request paths of a Maven build against the artifact index: the files of each artifact, their
+ * directories and paths which aren't found. Each invocation resolves all paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryPathBenchmark {
+
+    private static final String REPOSITORY_PATH = "/bin/maven/repository";
+
+    @Param({"600"})
+    private int bundleCount;
+
+    private ArtifactIndex artifactIndex;
+
+    private String[] requestPaths;
+
+    @Setup
+    public void setUp() throws IOException {
+        SyntheticFramework framework = new SyntheticFramework(bundleCount);
+        POMGeneratorImpl pomGenerator = framework.activatePomGenerator();
+        artifactIndex = pomGenerator.getArtifactIndex(framework.getBundleContext());
+        framework.deactivatePomGenerator(pomGenerator);
+
+        List<String> paths = new ArrayList<>();
+        for (ArtifactInformation artifact : artifactIndex.getDependencies()) {
+            if (artifact.isEmpty()) {
+                continue;
+            }
+            String artifactPath = REPOSITORY_PATH + "/" + artifact.getGroupId().replace('.', '/') + "/" + artifact.getArtifactId();
+            String versionPath = artifactPath + "/" + artifact.getVersion();
+            String fileName = artifact.getArtifactId() + "-" + artifact.getVersion();
+            paths.add(versionPath + "/" + fileName + ".pom");
+            paths.add(versionPath + "/" + fileName + ".pom.sha1");
+            paths.add(versionPath + "/" + fileName + ".jar");
+            paths.add(versionPath + "/" + fileName + ".jar.sha1");
+            paths.add(artifactPath + "/maven-metadata.xml");
+            paths.add(versionPath + "/" + fileName + "-sources.jar");
+            paths.add(REPOSITORY_PATH + "/com/example/missing/" + artifact.getArtifactId() + "/1.0/missing-1.0.pom");
+        }
+        requestPaths = paths.toArray(new String[paths.size()]);
+    }
+
+    @Benchmark
+    public void resolve(Blackhole blackhole) {
+        for (String requestPath : requestPaths) {
+            blackhole.consume(artifactIndex.resolve(requestPath, REPOSITORY_PATH.length()));
+        }
+    }
+
+    @Benchmark
+    public void getArtifact(Blackhole blackhole) {
+        for (ArtifactInformation artifact : artifactIndex.getDependencies()) {
+            blackhole.consume(artifactIndex.getArtifact(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion()));
+        }
+    }
+}
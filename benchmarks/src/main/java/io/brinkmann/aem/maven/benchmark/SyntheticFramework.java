@@ -0,0 +1,394 @@
+package io.brinkmann.aem.maven.benchmark;
+
+import io.brinkmann.aem.maven.impl.POMGeneratorImpl;
+import io.brinkmann.aem.maven.model.ArtifactComment;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.service.component.ComponentContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * In-memory stand-in for Apache Felix with a configurable number of bundles. The bundles are generated
+ * deterministically and resemble an AEM instance: most export packages and carry a <code>pom.properties</code>,
+ * some embed further libraries, some are fragments or lack maven metadata and a few libraries are installed in
+ * several versions. Bundles, bundle context and component context are dynamic proxies, so the fixture doesn't
+ * depend on the OSGi API version.
+ */
+public class SyntheticFramework {
+
+    private static final String[] GROUP_IDS = {
+            "com.adobe.granite", "com.adobe.cq", "com.day.cq.wcm", "org.apache.sling", "org.apache.jackrabbit",
+            "org.apache.felix", "org.apache.commons", "com.google.guava", "com.fasterxml.jackson.core", "io.wcm"};
+
+    private static final String[] QUALIFIERS = {"", "", "", "-SNAPSHOT", ".R1234", ".v20160310-1200", "-beta-2", ".CQ610-B0012"};
+
+    private static final long LAST_MODIFIED = 1457600000000L;
+
+    /**
+     * Class file contents of 500 to 6500 bytes shared by all bundles, which keeps the fixture small in memory.
+     */
+    private static final byte[][] CLASS_FILE_CONTENTS = new byte[64][];
+
+    static {
+        Random random = new Random(0);
+        for (int i = 0; i < CLASS_FILE_CONTENTS.length; i++) {
+            CLASS_FILE_CONTENTS[i] = createBinary(random, 500 + random.nextInt(6000));
+        }
+    }
+
+    private final List<Bundle> bundles = new ArrayList<>();
+
+    private final Map<Long, Bundle> bundlesById = new HashMap<>();
+
+    private final Set<ArtifactInformation> declaredArtifacts = new TreeSet<>();
+
+    private final List<String> versions = new ArrayList<>();
+
+    private final List<String> bundleGroupIds = new ArrayList<>();
+
+    private final BundleContext bundleContext;
+
+    public SyntheticFramework(int bundleCount) {
+        Random random = new Random(bundleCount);
+        for (int bundleId = 0; bundleId < bundleCount; bundleId++) {
+            Bundle bundle = new SyntheticBundle(bundleId, random).proxy;
+            bundles.add(bundle);
+            bundlesById.put((long) bundleId, bundle);
+        }
+
+        bundleContext = (BundleContext) Proxy.newProxyInstance(BundleContext.class.getClassLoader(), new Class<?>[]{BundleContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getBundles":
+                        return bundles.toArray(new Bundle[bundles.size()]);
+                    case "getBundle":
+                        return args == null || args.length == 0 ? bundles.get(0) : bundlesById.get(args[0]);
+                    default:
+                        return defaultValue(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    public BundleContext getBundleContext() {
+        return bundleContext;
+    }
+
+    public List<Bundle> getBundles() {
+        return bundles;
+    }
+
+    /**
+     * @return the bundle with the most entries
+     */
+    public Bundle getLargestBundle() {
+        Bundle largestBundle = bundles.get(0);
+        for (Bundle bundle : bundles) {
+            if (getHandler(bundle).entries.size() > getHandler(largestBundle).entries.size()) {
+                largestBundle = bundle;
+            }
+        }
+        return largestBundle;
+    }
+
+    public int getEntryCount(Bundle bundle) {
+        return getHandler(bundle).entries.size();
+    }
+
+    /**
+     * @return all artifacts and comments the bundles declare, including the duplicates in lower versions
+     */
+    public Set<ArtifactInformation> getDeclaredArtifacts() {
+        return declaredArtifacts;
+    }
+
+    public List<String> getVersions() {
+        return versions;
+    }
+
+    /**
+     * Activates a new generator with its default configuration. The activation starts the initial scan in the
+     * background, the first reader of the index waits for it.
+     */
+    public POMGeneratorImpl activatePomGenerator() {
+        POMGeneratorImpl pomGenerator = new POMGeneratorImpl();
+        invokeLifecycleMethod(pomGenerator, "activateComponent");
+        return pomGenerator;
+    }
+
+    public void deactivatePomGenerator(POMGeneratorImpl pomGenerator) {
+        invokeLifecycleMethod(pomGenerator, "deactivateComponent");
+    }
+
+    private void invokeLifecycleMethod(POMGeneratorImpl pomGenerator, String methodName) {
+        try {
+            Method method = POMGeneratorImpl.class.getDeclaredMethod(methodName, ComponentContext.class);
+            method.setAccessible(true);
+            method.invoke(pomGenerator, createComponentContext());
+        } catch (Exception ex) {
+            throw new IllegalStateException("Cannot invoke [" + methodName + "]", ex);
+        }
+    }
+
+    private ComponentContext createComponentContext() {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("dependencyBundleMapping", new String[]{"org.apache.felix.framework=org.apache.felix:org.apache.felix.framework"});
+        properties.put("listIgnoreBundle", new String[]{"^com\\.adobe\\.cq\\.ignored\\..*"});
+        properties.put("dependencyOutputPrefix", "            ");
+        properties.put("defaultGroupId", "com.adobe.aem");
+        properties.put("defaultArtifactId", "base-pom");
+        properties.put("defaultVersion", "1.0");
+        properties.put("depencyScopeProvided", Boolean.TRUE);
+
+        return (ComponentContext) Proxy.newProxyInstance(ComponentContext.class.getClassLoader(), new Class<?>[]{ComponentContext.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getProperties":
+                        return properties;
+                    case "getBundleContext":
+                        return bundleContext;
+                    default:
+                        return defaultValue(proxy, method, args);
+                }
+            }
+        });
+    }
+
+    private static SyntheticBundle getHandler(Bundle bundle) {
+        return (SyntheticBundle) Proxy.getInvocationHandler(bundle);
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return proxy.getClass().getName();
+            default:
+                break;
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+            return false;
+        } else if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static byte[] createText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        String[] words = {"sling", "resource", "component", "property", "service", "bundle", "<entry/>", "\n", "="};
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Bytecode like content, partly repetitive, so it compresses about as well as class files.
+     */
+    private static byte[] createBinary(Random random, int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = i % 3 == 0 ? (byte) random.nextInt(256) : (byte) "abcdefghij<init>()V".charAt(i % 19);
+        }
+        return content;
+    }
+
+    private String createVersion(Random random, boolean qualified) {
+        String version = random.nextInt(6) + "." + random.nextInt(20) + "." + random.nextInt(12)
+                + (qualified ? QUALIFIERS[random.nextInt(QUALIFIERS.length)] : "");
+        versions.add(version);
+        return version;
+    }
+
+    private class SyntheticBundle implements InvocationHandler {
+
+        private final long bundleId;
+
+        private final String symbolicName;
+
+        private final Version version;
+
+        private final Hashtable<String, String> headers = new Hashtable<>();
+
+        private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+        private final List<String> pomProperties = new ArrayList<>();
+
+        private final URLStreamHandler urlStreamHandler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(final URL url) {
+                return new URLConnection(url) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        byte[] content = entries.get(url.getPath().substring(1));
+                        if (content == null) {
+                            throw new IOException("No entry [" + url + "]");
+                        }
+                        return new ByteArrayInputStream(content);
+                    }
+                };
+            }
+        };
+
+        private final Bundle proxy;
+
+        private SyntheticBundle(int bundleId, Random random) {
+            this.bundleId = bundleId;
+            this.proxy = (Bundle) Proxy.newProxyInstance(Bundle.class.getClassLoader(), new Class<?>[]{Bundle.class}, this);
+
+            String groupId = GROUP_IDS[random.nextInt(GROUP_IDS.length)];
+            String artifactId = groupId.substring(groupId.lastIndexOf('.') + 1) + ".bundle" + bundleId;
+            // some libraries are installed twice, the duplicate filter keeps the higher version
+            if (bundleId > 0 && bundleId % 25 == 0) {
+                groupId = bundleGroupIds.get(bundleId - 1);
+                artifactId = groupId.substring(groupId.lastIndexOf('.') + 1) + ".bundle" + (bundleId - 1);
+            }
+            if (bundleId % 50 == 7) {
+                groupId = "com.adobe.cq.ignored";
+            }
+            bundleGroupIds.add(groupId);
+            symbolicName = groupId + "." + artifactId;
+            String artifactVersion = createVersion(random, true);
+            version = new Version(random.nextInt(6), random.nextInt(20), random.nextInt(12));
+
+            boolean fragment = bundleId % 10 == 3;
+            boolean exportsPackages = bundleId % 15 != 4;
+            boolean withPomProperties = bundleId % 20 != 9;
+            boolean ignored = groupId.equals("com.adobe.cq.ignored");
+            boolean exported = !ignored && !fragment && exportsPackages && withPomProperties;
+
+            headers.put("Bundle-SymbolicName", symbolicName);
+            headers.put("Bundle-Version", version.toString());
+            if (fragment) {
+                headers.put("Fragment-Host", "org.apache.sling.api");
+            }
+            if (exportsPackages) {
+                headers.put("Export-Package", groupId + "." + artifactId + ";version=\"" + version + "\"");
+            }
+
+            addDirectory("META-INF/");
+            addEntry("META-INF/MANIFEST.MF", createText(random, 400 + random.nextInt(4000)));
+            if (withPomProperties) {
+                addPomProperties(groupId, artifactId, artifactVersion, exported);
+                // embedded libraries
+                if (bundleId % 8 == 1) {
+                    for (int library = 0; library < 1 + random.nextInt(3); library++) {
+                        String libraryGroupId = GROUP_IDS[random.nextInt(GROUP_IDS.length)];
+                        addPomProperties(libraryGroupId, "embedded-" + bundleId + "-" + library, createVersion(random, false), exported);
+                    }
+                }
+            }
+
+            String packagePath = groupId.replace('.', '/') + "/" + artifactId.replace('.', '/') + "/";
+            addDirectory(packagePath);
+            int classCount = 30 + random.nextInt(bundleId % 30 == 0 ? 1500 : 300);
+            for (int classIndex = 0; classIndex < classCount; classIndex++) {
+                if (classIndex % 40 == 0) {
+                    packagePath = packagePath + "sub" + classIndex + "/";
+                    addDirectory(packagePath);
+                }
+                addEntry(packagePath + "Class" + classIndex + ".class", CLASS_FILE_CONTENTS[random.nextInt(CLASS_FILE_CONTENTS.length)]);
+            }
+            if (bundleId % 6 == 0) {
+                addEntry("OSGI-INF/metatype/metatype.xml", createText(random, 2000));
+                addEntry("icons/logo.png", createBinary(random, 3000));
+            }
+
+            if (ignored || exported) {
+                return;
+            }
+            if (fragment) {
+                declaredArtifacts.add(new ArtifactComment(symbolicName + " [skipped because it's a fragment]"));
+            } else if (!withPomProperties) {
+                declaredArtifacts.add(new ArtifactComment(symbolicName + " [skipped because of missing pom properties]"));
+            } else {
+                declaredArtifacts.add(new ArtifactComment(symbolicName + " [skipped due to no exports]"));
+            }
+        }
+
+        private void addPomProperties(String groupId, String artifactId, String artifactVersion, boolean exported) {
+            String path = "META-INF/maven/" + groupId + "/" + artifactId + "/pom.properties";
+            String content = "#Generated by Maven\nversion=" + artifactVersion + "\ngroupId=" + groupId + "\nartifactId=" + artifactId + "\n";
+            addEntry(path, content.getBytes(StandardCharsets.UTF_8));
+            pomProperties.add(path);
+            if (exported) {
+                declaredArtifacts.add(new ArtifactInformation(groupId, artifactId, artifactVersion, symbolicName, proxy));
+            }
+        }
+
+        private void addDirectory(String path) {
+            entries.put(path, new byte[0]);
+        }
+
+        private void addEntry(String path, byte[] content) {
+            entries.put(path, content);
+        }
+
+        private Enumeration<URL> toUrls(Collection<String> paths) {
+            List<URL> urls = new ArrayList<>(paths.size());
+            try {
+                for (String path : paths) {
+                    urls.add(new URL("bundle", String.valueOf(bundleId), -1, "/" + path, urlStreamHandler));
+                }
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return Collections.enumeration(urls);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getBundleId":
+                    return bundleId;
+                case "getSymbolicName":
+                    return symbolicName;
+                case "getVersion":
+                    return version;
+                case "getHeaders":
+                    return headers;
+                case "getState":
+                    return Bundle.ACTIVE;
+                case "getLastModified":
+                    return LAST_MODIFIED + bundleId;
+                case "getLocation":
+                    return "launchpad:resources/install/" + symbolicName + ".jar";
+                case "getBundleContext":
+                    return bundleContext;
+                case "findEntries":
+                    if ("pom.properties".equals(args[1])) {
+                        return pomProperties.isEmpty() ? null : toUrls(pomProperties);
+                    }
+                    return toUrls(entries.keySet());
+                default:
+                    return defaultValue(proxy, method, args);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package io.brinkmann.aem.maven;
+
+import io.brinkmann.aem.maven.model.ArtifactIndex;
+
+/**
+ * Notified by the {@link POMGenerator} after a new artifact index has been published.
+ */
+public interface ArtifactIndexListener {
+
+    /**
+     * Called on the index update thread, implementations must hand over long running work to their own threads.
+     */
+    void artifactIndexUpdated(ArtifactIndex artifactIndex);
+}
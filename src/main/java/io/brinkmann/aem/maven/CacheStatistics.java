@@ -0,0 +1,11 @@
+package io.brinkmann.aem.maven;
+
+/**
+ * Hit and miss counts of a cache, reported through the {@link RepositoryMetrics}.
+ */
+public interface CacheStatistics {
+
+    long getHits();
+
+    long getMisses();
+}
@@ -0,0 +1,9 @@
+package io.brinkmann.aem.maven;
+
+/**
+ * Count of events kept by another component, reported through the {@link RepositoryMetrics}.
+ */
+public interface Counter {
+
+    long getCount();
+}
@@ -1,5 +1,8 @@
 package io.brinkmann.aem.maven;
 
+import io.brinkmann.aem.maven.impl.HttpConditions;
+import io.brinkmann.aem.maven.model.RenderedDocument;
+import io.brinkmann.aem.maven.model.RequestTimer;
 import org.apache.felix.scr.annotations.*;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
@@ -24,26 +27,54 @@ public class MavenDependencyServlet extends SlingSafeMethodsServlet {
     @Reference
     POMGenerator pomGenerator;
 
+    @Reference
+    RepositoryMetrics repositoryMetrics;
+
     private BundleContext bundleContext = null;
 
     @Override
     protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws ServletException, IOException {
+        RequestTimer timer = repositoryMetrics.startRequest(RepositoryMetrics.ENDPOINT_DEPENDENCIES, request.getRequestURI());
+        try {
+            writeDependencies(request, response, timer);
+        } finally {
+            repositoryMetrics.recordRequest(timer);
+        }
+    }
+
+    private void writeDependencies(SlingHttpServletRequest request, SlingHttpServletResponse response, RequestTimer timer) throws IOException {
         String version = request.getParameter("version");
         String groupId = request.getParameter("groupId");
         String artifactId = request.getParameter("artifactId");
 
         boolean dependenciesOnly = "true".equals(request.getParameter("dependenciesOnly"));
 
-        String responseContent;
+        timer.setFileType("pom");
+        timer.startPhase(RequestTimer.Phase.BUILD);
+        RenderedDocument responseContent;
         if(dependenciesOnly)
         {
-            responseContent = pomGenerator.generateDependenciesPomFragment(bundleContext, "");
+            responseContent = pomGenerator.renderDependenciesPomFragment(bundleContext, "");
         }
         else
         {
-            responseContent = pomGenerator.generatePOM(bundleContext, groupId, artifactId, version);
+            responseContent = pomGenerator.renderPOM(bundleContext, groupId, artifactId, version);
+        }
+        timer.startPhase(RequestTimer.Phase.WRITE);
+        response.setContentType("text/xml;charset=UTF-8");
+        if (responseContent.hasGzippedContent()) {
+            response.setHeader("Vary", "Accept-Encoding");
+            if (HttpConditions.acceptsGzip(request)) {
+                response.setHeader("Content-Encoding", "gzip");
+                response.setContentLength(responseContent.getGzippedLength());
+                response.getOutputStream().write(responseContent.getGzippedContent());
+                timer.addBytes(responseContent.getGzippedLength());
+                return;
+            }
         }
-        response.getWriter().write(responseContent);
+        response.setContentLength(responseContent.getLength());
+        responseContent.writeTo(response.getOutputStream());
+        timer.addBytes(responseContent.getLength());
     }
 
     protected final void activate(final ComponentContext context) {
@@ -0,0 +1,31 @@
+package io.brinkmann.aem.maven;
+
+import org.apache.felix.scr.annotations.*;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+/**
+ * Provides the {@link RepositoryMetrics} as JSON document.
+ */
+@Service(value = javax.servlet.Servlet.class)
+@Component(immediate = true, metatype = true)
+@Properties({
+        @Property(name = "sling.servlet.methods", value = "GET", propertyPrivate = true),
+        @Property(name = "service.description", value = "Provides latency, traffic and cache statistics of the Maven repository.", propertyPrivate = true),
+        @Property(name = "sling.servlet.paths", value = "/bin/maven/metrics")
+})
+public class MavenMetricsServlet extends SlingSafeMethodsServlet {
+    @Reference
+    RepositoryMetrics repositoryMetrics;
+
+    @Override
+    protected void doGet(SlingHttpServletRequest request, SlingHttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        repositoryMetrics.writeJson(response.getWriter());
+    }
+}
@@ -2,33 +2,53 @@ package io.brinkmann.aem.maven;
 
 import io.brinkmann.aem.maven.exceptions.ArtifactDoesntExistInApacheFelix;
 import io.brinkmann.aem.maven.exceptions.ArtifactInformationCannotBeResolvedException;
+import io.brinkmann.aem.maven.exceptions.RequestRejectedException;
+import io.brinkmann.aem.maven.impl.AdmissionController;
+import io.brinkmann.aem.maven.impl.ArtifactWarmUp;
+import io.brinkmann.aem.maven.impl.AsyncResponseSender;
+import io.brinkmann.aem.maven.impl.BundleArchiveBuilder;
+import io.brinkmann.aem.maven.impl.BundleArchiveCache;
+import io.brinkmann.aem.maven.impl.HttpConditions;
+import io.brinkmann.aem.maven.impl.NamedThreadFactory;
+import io.brinkmann.aem.maven.impl.NexusIndexPublisher;
+import io.brinkmann.aem.maven.impl.RepositoryExporter;
+import io.brinkmann.aem.maven.model.ArtifactChecksums;
+import io.brinkmann.aem.maven.model.ArtifactIndex;
 import io.brinkmann.aem.maven.model.ArtifactInformation;
+import io.brinkmann.aem.maven.model.ArtifactMetadata;
+import io.brinkmann.aem.maven.model.RenderedDocument;
+import io.brinkmann.aem.maven.model.RepositoryPath;
+import io.brinkmann.aem.maven.model.RequestTimer;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.*;
 import org.apache.felix.scr.annotations.Properties;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.http.HttpService;
 import org.osgi.service.http.NamespaceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.net.URL;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 /**
  * Created by sbrinkmann on 13.02.16.
@@ -36,7 +56,7 @@ import java.util.zip.ZipOutputStream;
 @Service(value = javax.servlet.Servlet.class)
 @Component(immediate = true, metatype = true)
 @Properties({
-        @Property(name = "sling.servlet.methods", value = "GET", propertyPrivate = true),
+        @Property(name = "sling.servlet.methods", value = {"GET", "HEAD"}, propertyPrivate = true),
         @Property(name = "service.description", value = "Maven repository reflecting the bundles running in Apache Felix.", propertyPrivate = true),
 })
 public class MavenRepositoryServlet extends HttpServlet {
@@ -47,8 +67,134 @@ public class MavenRepositoryServlet extends HttpServlet {
 
     private static final String META_PREFIX_SUFFIX = "/.meta/prefixes.txt";
 
+    private static final String EXPORT_SUFFIX = "/.export/repository.";
+
+    private static final String NEXUS_INDEX_SUFFIX = "/.index/";
+
+    private static final String ARCHIVE_CACHE_DIRECTORY = "archives";
+
+    private static final String NEXUS_INDEX_DIRECTORY = "nexus-index";
+
+    private static final String NEXUS_INDEX_REPOSITORY_ID = "aem-repository";
+
+    private static final String FILE_TYPE_PREFIXES = "prefixes";
+
+    private static final String FILE_TYPE_EXPORT = "export";
+
+    private static final String FILE_TYPE_NEXUS_INDEX = "index";
+
+    private static final String MAVEN_METADATA_FILE_NAME = "maven-metadata.xml";
+
+    private static final String ARCHIVE_CACHE_STATISTICS = "archives";
+
+    private static final String CHECKSUM_CACHE_STATISTICS = "checksums";
+
+    private static final String RENDERED_DOCUMENT_CACHE_STATISTICS = "renderedDocuments";
+
+    private static final String COALESCED_BUILDS_COUNTER = "coalescedBuilds";
+
+    private static final String ACTIVE_BUILDS_COUNTER = "activeBuilds";
+
+    private static final String QUEUED_REQUESTS_COUNTER = "queuedRequests";
+
+    private static final String REJECTED_REQUESTS_COUNTER = "rejectedRequests";
+
+    private static final String WARM_UP_PENDING_COUNTER = "warmUpPendingArtifacts";
+
+    private static final String WARM_UP_WARMED_COUNTER = "warmUpWarmedArtifacts";
+
+    private static final String WARM_UP_FAILED_COUNTER = "warmUpFailedArtifacts";
+
+    private static final String HTTP_SERVICE_RUNTIME = "org.osgi.service.http.runtime.HttpServiceRuntime";
+
+    private static final String WHITEBOARD_SERVLET_NAME = "osgi.http.whiteboard.servlet.name";
+
+    private static final String WHITEBOARD_SERVLET_PATTERN = "osgi.http.whiteboard.servlet.pattern";
+
+    private static final String WHITEBOARD_SERVLET_ASYNC_SUPPORTED = "osgi.http.whiteboard.servlet.asyncSupported";
+
+    private static final String FRAMEWORK_STORAGE_PROPERTY = "org.osgi.framework.storage";
+
+    private static final String FELIX_CACHE_ROOTDIR_PROPERTY = "felix.cache.rootdir";
+
+    private static final String FRAMEWORK_STORAGE_DEFAULT_VALUE = "felix-cache";
+
+    @Property(boolValue = true, label = "Bundle File Passthrough", description = "Serve the original JAR file of a bundle as it is, in case it can be found through the bundle location or in the bundle cache of Apache Felix. Otherwise the JAR file is rebuilt from the bundle resources.")
+    private static final String PROP_BUNDLE_FILE_PASSTHROUGH = "bundleFilePassthrough";
+    private static final boolean PROP_BUNDLE_FILE_PASSTHROUGH_DEFAULT_VALUE = true;
+
+    @Property(intValue = Deflater.DEFAULT_COMPRESSION, label = "Archive Compression Level", description = "Deflate level (0-9) of rebuilt bundle JAR files, -1 applies the default level. Already compressed resources are always stored.")
+    private static final String PROP_ARCHIVE_COMPRESSION_LEVEL = "archiveCompressionLevel";
+
+    @Property(intValue = 0, label = "Archive Builder Threads", description = "Number of threads deflating the resources of rebuilt bundle JAR files, 0 uses one thread per processor.")
+    private static final String PROP_ARCHIVE_BUILDER_THREADS = "archiveBuilderThreads";
+
+    private static final int ENTRIES_IN_FLIGHT_PER_THREAD = 4;
+
+    @Property(boolValue = false, label = "Warm-Up Artifacts", description = "Builds archives, POM files, metadata and their checksums of all artifacts in the background after activation and after bundle changes.")
+    private static final String PROP_WARM_UP_ENABLED = "warmUpEnabled";
+    private static final boolean PROP_WARM_UP_ENABLED_DEFAULT_VALUE = false;
+
+    @Property(intValue = 1, label = "Warm-Up Threads", description = "Number of low priority threads warming up artifacts.")
+    private static final String PROP_WARM_UP_THREADS = "warmUpThreads";
+    private static final int PROP_WARM_UP_THREADS_DEFAULT_VALUE = 1;
+
+    @Property(intValue = 25, label = "Warm-Up CPU Share", description = "Percentage of a processor each warm-up thread may use (1-100).")
+    private static final String PROP_WARM_UP_CPU_PERCENT = "warmUpCpuPercent";
+    private static final int PROP_WARM_UP_CPU_PERCENT_DEFAULT_VALUE = 25;
+
+    @Property(intValue = 2, label = "Export Threads", description = "Number of threads preparing the archives of a repository export.")
+    private static final String PROP_EXPORT_THREADS = "exportThreads";
+    private static final int PROP_EXPORT_THREADS_DEFAULT_VALUE = 2;
+
+    private static final int ARTIFACTS_IN_FLIGHT_PER_EXPORT_THREAD = 2;
+
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    @Property(intValue = 16, label = "Response Threads", description = "Number of threads building and sending archives and exports asynchronously, virtual threads are used on Java 21 and newer.")
+    private static final String PROP_RESPONSE_THREADS = "responseThreads";
+    private static final int PROP_RESPONSE_THREADS_DEFAULT_VALUE = 16;
+
+    @Property(intValue = 64, label = "Response Queue Size", description = "Number of asynchronous responses waiting for a response thread. Further responses are written on the container thread.")
+    private static final String PROP_RESPONSE_QUEUE_SIZE = "responseQueueSize";
+    private static final int PROP_RESPONSE_QUEUE_SIZE_DEFAULT_VALUE = 64;
+
+    @Property(intValue = 600, label = "Response Timeout", description = "Seconds an asynchronous response may take, 0 for no limit.")
+    private static final String PROP_RESPONSE_TIMEOUT = "responseTimeout";
+    private static final int PROP_RESPONSE_TIMEOUT_DEFAULT_VALUE = 600;
+
+    @Property(intValue = 4, label = "Max Concurrent Builds", description = "Number of archives built at the same time for requests, exports included.")
+    private static final String PROP_MAX_CONCURRENT_BUILDS = "maxConcurrentBuilds";
+    private static final int PROP_MAX_CONCURRENT_BUILDS_DEFAULT_VALUE = 4;
+
+    @Property(intValue = 32, label = "Max Queued Requests", description = "Number of requests waiting for an archive build. Further requests are answered with 503 and Retry-After.")
+    private static final String PROP_MAX_QUEUED_REQUESTS = "maxQueuedRequests";
+    private static final int PROP_MAX_QUEUED_REQUESTS_DEFAULT_VALUE = 32;
+
+    @Property(intValue = 8, label = "Max Requests per Client", description = "Number of requests which may build archives a single client address may have in flight, 0 for no limit.")
+    private static final String PROP_MAX_REQUESTS_PER_CLIENT = "maxRequestsPerClient";
+    private static final int PROP_MAX_REQUESTS_PER_CLIENT_DEFAULT_VALUE = 8;
+
+    @Property(intValue = 5, label = "Retry After", description = "Seconds a rejected client is asked to wait before retrying.")
+    private static final String PROP_RETRY_AFTER = "retryAfter";
+    private static final int PROP_RETRY_AFTER_DEFAULT_VALUE = 5;
+
+    @Property(boolValue = true, label = "Nexus Index", description = "Publishes a Nexus index of the artifacts for the search of IDEs below .index/ of the repository.")
+    private static final String PROP_NEXUS_INDEX_ENABLED = "nexusIndexEnabled";
+    private static final boolean PROP_NEXUS_INDEX_ENABLED_DEFAULT_VALUE = true;
+
+    @Property(intValue = 10, label = "Nexus Index Incremental Chunks", description = "Number of incremental chunks of the Nexus index kept for clients updating their copy.")
+    private static final String PROP_NEXUS_INDEX_INCREMENTAL_CHUNKS = "nexusIndexIncrementalChunks";
+    private static final int PROP_NEXUS_INDEX_INCREMENTAL_CHUNKS_DEFAULT_VALUE = 10;
+
+    private static final Set<String> SERVED_FILE_EXTENSIONS = new HashSet<>(Arrays.asList("pom", "xml", "sha1", "md5", "sha256", "sha512", "jar"));
+
     private String metaPrefixPath;
 
+    private String exportPath;
+
+    private String nexusIndexPath;
+
     private String repositoryServletPath;
 
     @Reference
@@ -57,169 +203,653 @@ public class MavenRepositoryServlet extends HttpServlet {
     @Reference
     POMGenerator pomGenerator;
 
+    @Reference
+    RepositoryMetrics repositoryMetrics;
+
     private BundleContext bundleContext = null;
 
+    private ServiceRegistration<?> whiteboardRegistration;
+
+    private BundleArchiveCache bundleArchiveCache;
+
+    private ExecutorService archiveBuilderExecutor;
+
+    private BundleArchiveBuilder bundleArchiveBuilder;
+
+    private ArtifactWarmUp artifactWarmUp;
+
+    private ExecutorService exportExecutor;
+
+    private RepositoryExporter repositoryExporter;
+
+    private AsyncResponseSender asyncResponseSender;
+
+    private AdmissionController admissionController;
+
+    private NexusIndexPublisher nexusIndexPublisher;
+
+    private volatile GenerationDocument metaPrefixes;
+
+    private static class GenerationDocument {
+
+        private final long generation;
+
+        private final RenderedDocument document;
+
+        private GenerationDocument(long generation, RenderedDocument document) {
+            this.generation = generation;
+            this.document = document;
+        }
+    }
+
+    private int retryAfter;
+
+    private final ArtifactIndexListener warmUpListener = new ArtifactIndexListener() {
+        @Override
+        public void artifactIndexUpdated(ArtifactIndex artifactIndex) {
+            artifactWarmUp.warmUp(artifactIndex);
+        }
+    };
+
+    private final ArtifactIndexListener nexusIndexListener = new ArtifactIndexListener() {
+        @Override
+        public void artifactIndexUpdated(ArtifactIndex artifactIndex) {
+            nexusIndexPublisher.publish(artifactIndex);
+        }
+    };
+
+    private final Counter coalescedBuildsCounter = new Counter() {
+        @Override
+        public long getCount() {
+            return bundleArchiveCache.getCoalescedBuilds();
+        }
+    };
+
+    private final Counter activeBuildsCounter = new Counter() {
+        @Override
+        public long getCount() {
+            return admissionController.getActiveBuilds();
+        }
+    };
+
+    private final Counter queuedRequestsCounter = new Counter() {
+        @Override
+        public long getCount() {
+            return admissionController.getQueuedRequests();
+        }
+    };
+
+    private final Counter rejectedRequestsCounter = new Counter() {
+        @Override
+        public long getCount() {
+            return admissionController.getRejectedRequests();
+        }
+    };
+
+    private final Counter warmUpPendingCounter = new Counter() {
+        @Override
+        public long getCount() {
+            ArtifactWarmUp warmUp = artifactWarmUp;
+            return warmUp != null ? warmUp.getPendingArtifacts() : 0;
+        }
+    };
+
+    private final Counter warmUpWarmedCounter = new Counter() {
+        @Override
+        public long getCount() {
+            ArtifactWarmUp warmUp = artifactWarmUp;
+            return warmUp != null ? warmUp.getWarmedArtifacts() : 0;
+        }
+    };
+
+    private final Counter warmUpFailedCounter = new Counter() {
+        @Override
+        public long getCount() {
+            ArtifactWarmUp warmUp = artifactWarmUp;
+            return warmUp != null ? warmUp.getFailedArtifacts() : 0;
+        }
+    };
+
+    private final BundleListener archiveInvalidationListener = new BundleListener() {
+        @Override
+        public void bundleChanged(BundleEvent event) {
+            if (event.getType() == BundleEvent.UPDATED || event.getType() == BundleEvent.UNINSTALLED) {
+                bundleArchiveCache.invalidate(event.getBundle().getBundleId());
+            }
+        }
+    };
+
     @Override
     protected final void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        handleRequest(request, response, true);
+    }
+
+    /**
+     * Answers with the headers of the GET request, without building archives or computing checksums.
+     */
+    @Override
+    protected final void doHead(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        handleRequest(request, response, false);
+    }
+
+    private void handleRequest(final HttpServletRequest request, final HttpServletResponse response, boolean sendContent) throws IOException {
+        RequestTimer timer = repositoryMetrics.startRequest(RepositoryMetrics.ENDPOINT_REPOSITORY, request.getRequestURI());
+        try {
+            handleRequest(request, response, sendContent, timer);
+        } finally {
+            if (!timer.isAsynchronous()) {
+                repositoryMetrics.recordRequest(timer);
+            }
+        }
+    }
+
+    private void handleRequest(final HttpServletRequest request, final HttpServletResponse response, boolean sendContent, RequestTimer timer) throws IOException {
 
         if (request.getRequestURI().equals(metaPrefixPath)) {
-            response.setContentType("text/plain");
-            writeMetaPrefixes(response.getWriter());
+            timer.setFileType(FILE_TYPE_PREFIXES);
+            timer.startPhase(RequestTimer.Phase.LOOKUP);
+            ArtifactIndex artifactIndex = pomGenerator.getArtifactIndex(bundleContext);
+            timer.startPhase(RequestTimer.Phase.BUILD);
+            RenderedDocument metaPrefixes = getMetaPrefixes(artifactIndex);
+            boolean gzip = acceptsGzip(request, response, metaPrefixes);
+            String eTag = getETag("prefixes-" + artifactIndex.getGeneration(), gzip);
+            response.setHeader("ETag", eTag);
+            if (HttpConditions.isNotModified(request, eTag, -1)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            } else {
+                writeDocument(response, "text/plain;charset=UTF-8", metaPrefixes, gzip, sendContent, timer);
+            }
+        } else if (request.getRequestURI().startsWith(nexusIndexPath)) {
+            timer.setFileType(FILE_TYPE_NEXUS_INDEX);
+            writeNexusIndexFile(request, response, request.getRequestURI().substring(nexusIndexPath.length()), sendContent, timer);
+        } else if (request.getRequestURI().startsWith(exportPath) && isExportFormat(request.getRequestURI().substring(exportPath.length()))) {
+            timer.setFileType(FILE_TYPE_EXPORT);
+            writeExport(request, response, request.getRequestURI().substring(exportPath.length()), sendContent, timer);
         } else {
 
+            String fileExtension = FilenameUtils.getExtension(request.getRequestURI());
+            if (SERVED_FILE_EXTENSIONS.contains(fileExtension)) {
+                timer.setFileType(fileExtension);
+            }
+
             try {
-                ArtifactInformation fromRequestResolvedArtifactInformation = extractArtifactInformationFromRequest(request);
+                timer.startPhase(RequestTimer.Phase.LOOKUP);
+                RepositoryPath repositoryPath = resolveRepositoryPath(request.getRequestURI());
+                if (isArtifactMetadataFile(repositoryPath)) {
+                    writeArtifactMetadata(request, response, repositoryPath.getArtifactMetadata(), fileExtension, sendContent, timer);
+                    return;
+                }
+
+                ArtifactInformation artifactFromApacheFelix = lookupArtifactInApacheFelix(repositoryPath);
+                Bundle bundle = artifactFromApacheFelix.getAssociatedBundle();
 
-                ArtifactInformation artifactFromApacheFelix = lookupArtifactInApacheFelix(fromRequestResolvedArtifactInformation);
+                if (!SERVED_FILE_EXTENSIONS.contains(fileExtension)) {
+                    throw new ArtifactInformationCannotBeResolvedException();
+                }
 
-                String fileExtension = FilenameUtils.getExtension(request.getRequestURI());
+                String eTag = "\"" + bundle.getBundleId() + "-" + bundle.getLastModified() + "\"";
+                response.setHeader("ETag", eTag);
+                response.setDateHeader("Last-Modified", bundle.getLastModified());
+                if (HttpConditions.isNotModified(request, eTag, bundle.getLastModified())) {
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
 
+                timer.startPhase(RequestTimer.Phase.BUILD);
                 switch (fileExtension) {
                     case "pom":
-                        response.setContentType("text/xml;charset=UTF-8");
-                        response.getWriter().write(fromRequestResolvedArtifactInformation.getPomFile());
+                        writeDocument(response, "text/xml;charset=UTF-8", artifactFromApacheFelix.getPomDocument(), false, sendContent, timer);
                         break;
                     case "xml":
-                        response.setContentType("text/xml;charset=UTF-8");
-                        response.getWriter().write(fromRequestResolvedArtifactInformation.getMavenMetadata());
+                        writeDocument(response, "text/xml;charset=UTF-8", artifactFromApacheFelix.getMavenMetadataDocument(), false, sendContent, timer);
                         break;
                     case "sha1":
-                        response.getOutputStream().write(generateSha1Hash(artifactFromApacheFelix.getAssociatedBundle()));
+                    case "md5":
+                    case "sha256":
+                    case "sha512":
+                        String checksumFileExtension = FilenameUtils.getExtension(FilenameUtils.removeExtension(request.getRequestURI()));
+                        if (!sendContent) {
+                            response.setContentType("text/plain");
+                            response.setHeader("Content-Length", String.valueOf(ArtifactChecksums.getChecksumLength(fileExtension)));
+                            break;
+                        }
+                        if ("jar".equals(checksumFileExtension) && bundleArchiveCache.getAvailableChecksums(bundle) == null
+                                && bundleArchiveCache.getAvailableArchive(bundle) == null) {
+                            writeArchiveChecksum(request, response, bundle, fileExtension, timer);
+                            break;
+                        }
+                        ArtifactChecksums checksums = getChecksums(checksumFileExtension, artifactFromApacheFelix);
+                        if (checksums == null) {
+                            throw new ArtifactInformationCannotBeResolvedException();
+                        }
+                        writeDocument(response, "text/plain", checksums.getChecksum(fileExtension), true, timer);
                         break;
                     case "jar":
-                        response.setContentType("application/java-archive");
-                        writeBundleArtifactFile(response.getOutputStream(), artifactFromApacheFelix.getAssociatedBundle());
+                        writeArchive(request, response, bundle, eTag, sendContent, timer);
                         break;
-                    default:
-                        handleArtifactInformationCannotBeResolvedException(request.getRequestURI(), response.getWriter());
                 }
-            } catch (ArtifactDoesntExistInApacheFelix | ArtifactInformationCannotBeResolvedException | NoSuchAlgorithmException ex) {
-                handleArtifactInformationCannotBeResolvedException(request.getRequestURI(), response.getWriter());
+            } catch (ArtifactDoesntExistInApacheFelix | ArtifactInformationCannotBeResolvedException ex) {
+                timer.setNotFound(true);
+                timer.startPhase(RequestTimer.Phase.WRITE);
+                if (sendContent) {
+                    handleArtifactInformationCannotBeResolvedException(request.getRequestURI(), response.getWriter());
+                }
             }
         }
     }
 
-    private void writeMetaPrefixes(PrintWriter output) throws IOException {
-        Set<ArtifactInformation> dependencyList = pomGenerator.getGeneratedDependencyList(bundleContext);
-        Set<String> groupInformation = new TreeSet<>();
-        for (ArtifactInformation dependency : dependencyList) {
-            if (StringUtils.isNotEmpty(dependency.getGroupId())) {
-                String[] groupIdElements = dependency.getGroupId().split("\\.");
+    private void writeDocument(HttpServletResponse response, String contentType, String document, boolean sendContent, RequestTimer timer) throws IOException {
+        byte[] content = document.getBytes(StandardCharsets.UTF_8);
+        timer.startPhase(RequestTimer.Phase.WRITE);
+        response.setContentType(contentType);
+        response.setHeader("Content-Length", String.valueOf(content.length));
+        if (sendContent) {
+            response.getOutputStream().write(content);
+            timer.addBytes(content.length);
+        }
+    }
 
-                String firstTwoGroupLevels = "/" + groupIdElements[0];
-                if (groupIdElements.length >= 2) {
-                    firstTwoGroupLevels += "/" + groupIdElements[1];
-                }
+    /**
+     * Sends the pre-rendered document, its gzipped content in case <code>gzip</code> is set.
+     */
+    private void writeDocument(HttpServletResponse response, String contentType, RenderedDocument document, boolean gzip, boolean sendContent, RequestTimer timer) throws IOException {
+        byte[] content = gzip ? document.getGzippedContent() : document.getContent();
+        timer.startPhase(RequestTimer.Phase.WRITE);
+        response.setContentType(contentType);
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setHeader("Content-Length", String.valueOf(content.length));
+        if (sendContent) {
+            response.getOutputStream().write(content);
+            timer.addBytes(content.length);
+        }
+    }
 
-                groupInformation.add(firstTwoGroupLevels);
-            }
+    /**
+     * Announces that the response of a compressible document depends on the <code>Accept-Encoding</code> header.
+     *
+     * @return true in case the gzipped content of the document is sent
+     */
+    private boolean acceptsGzip(HttpServletRequest request, HttpServletResponse response, RenderedDocument document) {
+        if (!document.hasGzippedContent()) {
+            return false;
         }
+        response.setHeader("Vary", "Accept-Encoding");
+        return HttpConditions.acceptsGzip(request);
+    }
 
-        output.write("## repository-prefixes/2.0\n");
+    /**
+     * @return the quoted entity tag, the gzipped representation gets a tag of its own
+     */
+    private static String getETag(String tag, boolean gzip) {
+        return "\"" + tag + (gzip ? "-gzip" : "") + "\"";
+    }
 
-        for (String prefixes : groupInformation) {
-            output.write(prefixes + "\n");
+    /**
+     * Sends the <code>maven-metadata.xml</code> listing the versions of an artifact or one of its checksums.
+     */
+    private void writeArtifactMetadata(HttpServletRequest request, HttpServletResponse response, ArtifactMetadata metadata, String fileExtension, boolean sendContent, RequestTimer timer) throws IOException {
+        ArtifactChecksums checksums = metadata.getChecksums();
+        boolean xml = "xml".equals(fileExtension);
+        boolean gzip = xml && acceptsGzip(request, response, metadata.getDocument());
+        String eTag = getETag(checksums.getSha1(), gzip);
+        response.setHeader("ETag", eTag);
+        if (metadata.getLastModified() > 0) {
+            response.setDateHeader("Last-Modified", metadata.getLastModified());
+        }
+        if (HttpConditions.isNotModified(request, eTag, metadata.getLastModified() > 0 ? metadata.getLastModified() : -1)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
         }
 
+        if (xml) {
+            writeDocument(response, "text/xml;charset=UTF-8", metadata.getDocument(), gzip, sendContent, timer);
+        } else {
+            writeDocument(response, "text/plain", checksums.getChecksum(fileExtension), sendContent, timer);
+        }
     }
 
-    private byte[] generateSha1Hash(Bundle associatedBundle) throws IOException, NoSuchAlgorithmException {
-        MessageDigest hash = MessageDigest.getInstance("SHA1");
-        hash.reset();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        OutputStream output = new DigestOutputStream(byteArrayOutputStream, hash);
+    /**
+     * @return true in case the path points to the metadata of an artifact id directory or to one of its checksums
+     */
+    private boolean isArtifactMetadataFile(RepositoryPath repositoryPath) {
+        if (!repositoryPath.isFile() || !repositoryPath.isArtifactPath() || repositoryPath.isVersionPath()) {
+            return false;
+        }
+        String fileName = repositoryPath.getFileName();
+        return fileName.equals(MAVEN_METADATA_FILE_NAME)
+                || fileName.startsWith(MAVEN_METADATA_FILE_NAME + ".") && ArtifactChecksums.isChecksumExtension(FilenameUtils.getExtension(fileName));
+    }
 
-        writeBundleArtifactFile(output, associatedBundle);
+    /**
+     * Sends the archive of the bundle, a single byte range of it in case the request asks for one. Ranges can only
+     * be served for archives which are available as a file. The archive is built and sent asynchronously.
+     */
+    private void writeArchive(final HttpServletRequest request, final HttpServletResponse response, final Bundle bundle, final String eTag, boolean sendContent, final RequestTimer timer) throws IOException {
+        response.setContentType("application/java-archive");
+        response.setHeader("Accept-Ranges", "bytes");
+
+        if (!sendContent) {
+            File archive = bundleArchiveCache.getAvailableArchive(bundle);
+            if (archive != null) {
+                writeArchiveRange(request, response, bundle, eTag, archive, null, timer);
+            }
+            return;
+        }
 
-        DigestOutputStream digestOutput = (DigestOutputStream) output;
-        byte[] digest = digestOutput.getMessageDigest().digest();
-        String hexStr = "";
-        for (int i = 0; i < digest.length; i++) {
-            hexStr += Integer.toString((digest[i] & 0xff) + 0x100, 16)
-                    .substring(1);
+        final AdmissionController.Ticket ticket = admit(request, response, timer);
+        if (ticket == null) {
+            return;
         }
 
-        return hexStr.getBytes();
+        sendAsynchronously(request, response, timer, ticket, new AsyncResponseSender.ResponseContent() {
+            @Override
+            public void writeTo(OutputStream output, boolean asynchronous) throws IOException {
+                File archive = bundleArchiveCache.getAvailableArchive(bundle);
+                if (archive == null) {
+                    try {
+                        ticket.acquireBuildPermit(asynchronous);
+                    } catch (RequestRejectedException ex) {
+                        rejectRequest(response, timer);
+                        return;
+                    }
+                    archive = bundleArchiveCache.getArchive(bundle);
+                }
+                if (archive == null) {
+                    // building and sending can't be told apart for a streamed archive, the time counts as build phase
+                    CountingOutputStream countingOutput = new CountingOutputStream(output);
+                    bundleArchiveCache.writeArchive(bundle, countingOutput);
+                    timer.addBytes(countingOutput.getByteCount());
+                } else {
+                    ticket.releaseBuildPermit();
+                    writeArchiveRange(request, response, bundle, eTag, archive, output, timer);
+                }
+            }
+        });
     }
 
-    private ArtifactInformation lookupArtifactInApacheFelix(ArtifactInformation fromRequestResolvedArtifactInformation) throws IOException, ArtifactDoesntExistInApacheFelix {
-        ArtifactInformation artifactInformationFromApacheFelix = null;
-        Set<ArtifactInformation> artifactsInApacheFelix = pomGenerator.getGeneratedDependencyList(bundleContext);
-        for (ArtifactInformation artifactInApacheFelix : artifactsInApacheFelix) {
-            if (artifactInApacheFelix.equals(fromRequestResolvedArtifactInformation)) {
-                artifactInformationFromApacheFelix = artifactInApacheFelix;
-                break;
+    /**
+     * Sends a checksum of an archive which has to be built first. The archive is built and the checksum sent
+     * asynchronously, like the archive itself.
+     */
+    private void writeArchiveChecksum(HttpServletRequest request, final HttpServletResponse response, final Bundle bundle, final String checksumType, final RequestTimer timer) throws IOException {
+        final AdmissionController.Ticket ticket = admit(request, response, timer);
+        if (ticket == null) {
+            return;
+        }
+
+        sendAsynchronously(request, response, timer, ticket, new AsyncResponseSender.ResponseContent() {
+            @Override
+            public void writeTo(OutputStream output, boolean asynchronous) throws IOException {
+                try {
+                    ticket.acquireBuildPermit(asynchronous);
+                } catch (RequestRejectedException ex) {
+                    rejectRequest(response, timer);
+                    return;
+                }
+                String checksum;
+                try {
+                    checksum = bundleArchiveCache.getChecksums(bundle).getChecksum(checksumType);
+                } finally {
+                    ticket.releaseBuildPermit();
+                }
+
+                byte[] content = checksum.getBytes(StandardCharsets.UTF_8);
+                timer.startPhase(RequestTimer.Phase.WRITE);
+                response.setContentType("text/plain");
+                response.setHeader("Content-Length", String.valueOf(content.length));
+                output.write(content);
+                timer.addBytes(content.length);
             }
+        });
+    }
+
+    /**
+     * @param output stream the requested range is sent to, null in case only the headers are sent
+     */
+    private void writeArchiveRange(HttpServletRequest request, HttpServletResponse response, Bundle bundle, String eTag, File archive, OutputStream output, RequestTimer timer) throws IOException {
+        timer.startPhase(RequestTimer.Phase.WRITE);
+        long size = archive.length();
+        long[] range = HttpConditions.getRange(request, eTag, bundle.getLastModified(), size);
+        if (range == HttpConditions.UNSATISFIABLE_RANGE) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + size);
+            return;
         }
 
-        if (artifactInformationFromApacheFelix == null) {
-            throw new ArtifactDoesntExistInApacheFelix();
+        long position = 0;
+        long length = size;
+        if (range != null) {
+            position = range[0];
+            length = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size);
+        }
+        response.setHeader("Content-Length", String.valueOf(length));
+        if (output != null) {
+            BundleArchiveCache.transferFile(archive, position, length, output);
+            timer.addBytes(length);
+        }
+    }
+
+    /**
+     * Hands the content over to the response threads, the request is recorded and its ticket released once the
+     * response is completed.
+     */
+    private void sendAsynchronously(HttpServletRequest request, HttpServletResponse response, final RequestTimer timer, final AdmissionController.Ticket ticket, AsyncResponseSender.ResponseContent content) throws IOException {
+        if (!request.isAsyncSupported()) {
+            try {
+                asyncResponseSender.send(request, response, content, null);
+            } finally {
+                ticket.release();
+            }
+            return;
         }
 
-        return artifactInformationFromApacheFelix;
+        timer.setAsynchronous(true);
+        asyncResponseSender.send(request, response, content, new Runnable() {
+            @Override
+            public void run() {
+                ticket.release();
+                repositoryMetrics.recordRequest(timer);
+            }
+        });
     }
 
-    private void handleArtifactInformationCannotBeResolvedException(String requestURI, PrintWriter output) {
-        output.write("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 3.2 Final//EN\">");
-        output.write("<html><head><title>Index of " + requestURI + "</title></head><body><h1>Index of " + requestURI + "</h1>");
-        output.write("<pre><hr></pre></body></html>");
-        output.flush();
+    /**
+     * @return the ticket of the admitted request, null in case the request has been rejected
+     */
+    private AdmissionController.Ticket admit(HttpServletRequest request, HttpServletResponse response, RequestTimer timer) {
+        try {
+            return admissionController.admit(request.getRemoteAddr());
+        } catch (RequestRejectedException ex) {
+            LOG.debug("Request [" + request.getRequestURI() + "] rejected: " + ex.getMessage());
+            rejectRequest(response, timer);
+            return null;
+        }
     }
 
-    private ArtifactInformation extractArtifactInformationFromRequest(final HttpServletRequest request) throws ArtifactInformationCannotBeResolvedException {
-        ArtifactInformation artifactInformation = new ArtifactInformation();
+    private void rejectRequest(HttpServletResponse response, RequestTimer timer) {
+        timer.setRejected(true);
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        response.setHeader("Content-Length", "0");
+    }
 
-        if (repositoryServletPath.length() == request.getRequestURI().length())
-            throw new ArtifactInformationCannotBeResolvedException();
+    private static boolean isExportFormat(String format) {
+        return RepositoryExporter.FORMAT_ZIP.equals(format) || RepositoryExporter.FORMAT_TAR.equals(format);
+    }
+
+    /**
+     * Streams the whole repository or the artifacts selected by the <code>groupPrefix</code> and
+     * <code>changedSince</code> parameters as one archive. The size isn't known up front, so the archive is sent
+     * without Content-Length. The exporter takes a build permit for each archive it builds.
+     */
+    private void writeExport(HttpServletRequest request, final HttpServletResponse response, final String format, boolean sendContent, final RequestTimer timer) throws IOException {
+        long changedSince = 0;
+        String changedSinceParameter = request.getParameter("changedSince");
+        if (StringUtils.isNotEmpty(changedSinceParameter)) {
+            try {
+                changedSince = Long.parseLong(changedSinceParameter);
+            } catch (NumberFormatException ex) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "changedSince has to be given in milliseconds since the epoch");
+                return;
+            }
+        }
 
-        String artifactRequestInformation = request.getRequestURI().substring(repositoryServletPath.length() + 1);
-        List<String> artifactRequestInformationParts = Arrays.asList(artifactRequestInformation.split("/"));
+        final List<String> groupPrefixes = new ArrayList<>();
+        String[] groupPrefixParameters = request.getParameterValues("groupPrefix");
+        if (groupPrefixParameters != null) {
+            for (String groupPrefixParameter : groupPrefixParameters) {
+                groupPrefixes.addAll(Arrays.asList(StringUtils.split(groupPrefixParameter, ", ")));
+            }
+        }
 
-        if (artifactRequestInformationParts.size() < 3)
-            throw new ArtifactInformationCannotBeResolvedException();
+        timer.startPhase(RequestTimer.Phase.LOOKUP);
+        final ArtifactIndex artifactIndex = pomGenerator.getArtifactIndex(bundleContext);
+        final long exportChangedSince = changedSince;
 
-        List<String> groupIdParts = artifactRequestInformationParts.subList(0, artifactRequestInformationParts.size() - 3);
+        response.setContentType(RepositoryExporter.FORMAT_TAR.equals(format) ? "application/x-tar" : "application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename=\"repository." + format + "\"");
+        if (!sendContent) {
+            return;
+        }
 
-        String groupId = StringUtils.join(groupIdParts, ".");
-        String artifactId = artifactRequestInformationParts.get(artifactRequestInformationParts.size() - 3);
-        String version = artifactRequestInformationParts.get(artifactRequestInformationParts.size() - 2);
+        final AdmissionController.Ticket ticket = admit(request, response, timer);
+        if (ticket == null) {
+            return;
+        }
 
-        artifactInformation.setGroupId(groupId);
-        artifactInformation.setArtifactId(artifactId);
-        artifactInformation.setVersion(version);
+        sendAsynchronously(request, response, timer, ticket, new AsyncResponseSender.ResponseContent() {
+            @Override
+            public void writeTo(OutputStream responseOutput, boolean asynchronous) throws IOException {
+                timer.startPhase(RequestTimer.Phase.WRITE);
+                CountingOutputStream output = new CountingOutputStream(new BufferedOutputStream(responseOutput, EXPORT_BUFFER_SIZE));
+                try {
+                    int exportedArtifacts = repositoryExporter.export(artifactIndex, new RepositoryExporter.Filter(groupPrefixes, exportChangedSince), format, output);
+                    output.flush();
+                    LOG.info("Exported [" + exportedArtifacts + "] artifacts with [" + output.getByteCount() + "] bytes as [" + format + "]");
+                } finally {
+                    timer.addBytes(output.getByteCount());
+                }
+            }
+        });
+    }
 
-        return artifactInformation;
+    /**
+     * @return the prefixes of the index, rendered once per generation
+     */
+    private RenderedDocument getMetaPrefixes(ArtifactIndex artifactIndex) {
+        GenerationDocument metaPrefixes = this.metaPrefixes;
+        if (metaPrefixes == null || metaPrefixes.generation != artifactIndex.getGeneration()) {
+            metaPrefixes = new GenerationDocument(artifactIndex.getGeneration(), RenderedDocument.of(generateMetaPrefixes(artifactIndex)));
+            this.metaPrefixes = metaPrefixes;
+        }
+        return metaPrefixes.document;
     }
 
-    private void writeBundleArtifactFile(OutputStream output, Bundle bundle) throws IOException {
-        ArrayList<String> inZip = new ArrayList<>();
-        Enumeration bundleResources = bundle.findEntries("/", null, true);
-        if (bundleResources != null) {
-            ZipOutputStream zipOutputStream = new ZipOutputStream(output);
-            while (bundleResources.hasMoreElements()) {
+    /**
+     * Sends a file of the published Nexus index, 404 in case it doesn't exist or hasn't been published yet.
+     */
+    private void writeNexusIndexFile(HttpServletRequest request, HttpServletResponse response, String fileName, boolean sendContent, RequestTimer timer) throws IOException {
+        timer.startPhase(RequestTimer.Phase.LOOKUP);
+        File file = nexusIndexPublisher != null ? nexusIndexPublisher.getFile(fileName) : null;
+        if (file == null) {
+            timer.setNotFound(true);
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
 
-                URL uriResourceToZip = (URL) bundleResources.nextElement();
-                try {
-                    String path = uriResourceToZip.getPath();
-                    if (inZip.contains(path.substring(1))) {
-                        continue;
-                    }
-                    ZipEntry zipEntry = new ZipEntry(path.substring(1));
-                    zipEntry.setTime(bundle.getLastModified());
-                    zipOutputStream.putNextEntry(zipEntry);
-                    InputStream input = uriResourceToZip.openStream();
-                    IOUtils.copy(input, zipOutputStream);
-                    zipOutputStream.closeEntry();
-                    input.close();
-                    inZip.add(path.substring(1));
-                } catch (Exception ex) {
-                    LOG.warn("Issue while reading resource [" + uriResourceToZip + "]", ex);
+        long lastModified = file.lastModified();
+        String eTag = "\"index-" + lastModified + "-" + file.length() + "\"";
+        response.setHeader("ETag", eTag);
+        response.setDateHeader("Last-Modified", lastModified);
+        if (HttpConditions.isNotModified(request, eTag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        timer.startPhase(RequestTimer.Phase.WRITE);
+        response.setContentType(fileName.equals(NexusIndexPublisher.PROPERTIES_FILE_NAME) ? "text/plain;charset=ISO-8859-1" : "application/x-gzip");
+        response.setHeader("Content-Length", String.valueOf(file.length()));
+        if (sendContent) {
+            BundleArchiveCache.transferFile(file, response.getOutputStream());
+            timer.addBytes(file.length());
+        }
+    }
+
+    private String generateMetaPrefixes(ArtifactIndex artifactIndex) {
+        Set<ArtifactInformation> dependencyList = artifactIndex.getDependencies();
+        Set<String> groupInformation = new TreeSet<>();
+        for (ArtifactInformation dependency : dependencyList) {
+            if (StringUtils.isNotEmpty(dependency.getGroupId())) {
+                String[] groupIdElements = dependency.getGroupId().split("\\.");
+
+                String firstTwoGroupLevels = "/" + groupIdElements[0];
+                if (groupIdElements.length >= 2) {
+                    firstTwoGroupLevels += "/" + groupIdElements[1];
                 }
+
+                groupInformation.add(firstTwoGroupLevels);
             }
-            zipOutputStream.close();
-        } else {
-            throw new IOException("No bundle resource found");
         }
+
+        StringBuilder output = new StringBuilder();
+        output.append("## repository-prefixes/2.0\n");
+
+        for (String prefixes : groupInformation) {
+            output.append(prefixes).append("\n");
+        }
+
+        return output.toString();
+    }
+
+    /**
+     * @param fileExtension extension of the file the checksums are requested for
+     * @return the checksums, null in case the file type has no checksums
+     */
+    private ArtifactChecksums getChecksums(String fileExtension, ArtifactInformation artifact) throws IOException {
+        switch (fileExtension) {
+            case "jar":
+                return bundleArchiveCache.getChecksums(artifact.getAssociatedBundle());
+            case "pom":
+                return artifact.getPomDocument().getChecksums();
+            case "xml":
+                return artifact.getMavenMetadataDocument().getChecksums();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Resolves the request URI in one pass through the repository layout of the artifact index.
+     */
+    private RepositoryPath resolveRepositoryPath(String requestURI) throws IOException, ArtifactInformationCannotBeResolvedException {
+        if (requestURI.length() <= repositoryServletPath.length() + 1)
+            throw new ArtifactInformationCannotBeResolvedException();
+
+        ArtifactIndex artifactIndex = pomGenerator.getArtifactIndex(bundleContext);
+        return artifactIndex.resolve(requestURI, repositoryServletPath.length());
+    }
+
+    /**
+     * @param repositoryPath path of a file inside the version directory of an artifact
+     * @return the artifact the requested file belongs to
+     */
+    private ArtifactInformation lookupArtifactInApacheFelix(RepositoryPath repositoryPath) throws ArtifactDoesntExistInApacheFelix {
+        if (!repositoryPath.isFile() || !repositoryPath.isVersionPath()) {
+            throw new ArtifactDoesntExistInApacheFelix();
+        }
+
+        return repositoryPath.getArtifact();
+    }
+
+    private void handleArtifactInformationCannotBeResolvedException(String requestURI, PrintWriter output) {
+        output.write("<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 3.2 Final//EN\">");
+        output.write("<html><head><title>Index of " + requestURI + "</title></head><body><h1>Index of " + requestURI + "</h1>");
+        output.write("<pre><hr></pre></body></html>");
+        output.flush();
     }
 
     protected final void activate(ComponentContext componentContext) {
@@ -229,7 +859,82 @@ public class MavenRepositoryServlet extends HttpServlet {
         repositoryServletPath = (String) properties.get(PROP_REPOSITORY_SERVLET_PATH);
 
         metaPrefixPath = repositoryServletPath + META_PREFIX_SUFFIX;
+        exportPath = repositoryServletPath + EXPORT_SUFFIX;
+        nexusIndexPath = repositoryServletPath + NEXUS_INDEX_SUFFIX;
+
+        boolean bundleFilePassthrough = PropertiesUtil.toBoolean(properties.get(PROP_BUNDLE_FILE_PASSTHROUGH), PROP_BUNDLE_FILE_PASSTHROUGH_DEFAULT_VALUE);
+        int archiveCompressionLevel = PropertiesUtil.toInteger(properties.get(PROP_ARCHIVE_COMPRESSION_LEVEL), Deflater.DEFAULT_COMPRESSION);
+        if (!BundleArchiveBuilder.isValidCompressionLevel(archiveCompressionLevel)) {
+            LOG.warn("Archive compression level [" + archiveCompressionLevel + "] is not valid, the default level is used.");
+            archiveCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+        }
+        int archiveBuilderThreads = PropertiesUtil.toInteger(properties.get(PROP_ARCHIVE_BUILDER_THREADS), 0);
+        archiveBuilderThreads = archiveBuilderThreads > 0 ? archiveBuilderThreads : Runtime.getRuntime().availableProcessors();
+        archiveBuilderExecutor = Executors.newFixedThreadPool(archiveBuilderThreads, new NamedThreadFactory("aem-maven-repository-archive"));
+        bundleArchiveBuilder = new BundleArchiveBuilder(archiveBuilderExecutor, archiveCompressionLevel, archiveBuilderThreads * ENTRIES_IN_FLIGHT_PER_THREAD);
+        bundleArchiveCache = new BundleArchiveCache(bundleArchiveBuilder, bundleContext.getDataFile(ARCHIVE_CACHE_DIRECTORY), getFrameworkStorageDirectory(), bundleFilePassthrough);
+        bundleArchiveCache.purgeStaleArchives(bundleContext);
+        bundleContext.addBundleListener(archiveInvalidationListener);
+
+        int responseThreads = PropertiesUtil.toInteger(properties.get(PROP_RESPONSE_THREADS), PROP_RESPONSE_THREADS_DEFAULT_VALUE);
+        int responseQueueSize = PropertiesUtil.toInteger(properties.get(PROP_RESPONSE_QUEUE_SIZE), PROP_RESPONSE_QUEUE_SIZE_DEFAULT_VALUE);
+        int responseTimeout = PropertiesUtil.toInteger(properties.get(PROP_RESPONSE_TIMEOUT), PROP_RESPONSE_TIMEOUT_DEFAULT_VALUE);
+        asyncResponseSender = new AsyncResponseSender(responseThreads, responseQueueSize, TimeUnit.SECONDS.toMillis(responseTimeout));
+
+        admissionController = new AdmissionController(
+                PropertiesUtil.toInteger(properties.get(PROP_MAX_CONCURRENT_BUILDS), PROP_MAX_CONCURRENT_BUILDS_DEFAULT_VALUE),
+                PropertiesUtil.toInteger(properties.get(PROP_MAX_QUEUED_REQUESTS), PROP_MAX_QUEUED_REQUESTS_DEFAULT_VALUE),
+                PropertiesUtil.toInteger(properties.get(PROP_MAX_REQUESTS_PER_CLIENT), PROP_MAX_REQUESTS_PER_CLIENT_DEFAULT_VALUE));
+        retryAfter = PropertiesUtil.toInteger(properties.get(PROP_RETRY_AFTER), PROP_RETRY_AFTER_DEFAULT_VALUE);
+
+        int exportThreads = Math.max(1, PropertiesUtil.toInteger(properties.get(PROP_EXPORT_THREADS), PROP_EXPORT_THREADS_DEFAULT_VALUE));
+        exportExecutor = Executors.newFixedThreadPool(exportThreads, new NamedThreadFactory("aem-maven-repository-export"));
+        repositoryExporter = new RepositoryExporter(bundleArchiveCache, admissionController, exportExecutor, exportThreads * ARTIFACTS_IN_FLIGHT_PER_EXPORT_THREAD);
+
+        repositoryMetrics.addCacheStatistics(ARCHIVE_CACHE_STATISTICS, bundleArchiveCache.getArchiveStatistics());
+        repositoryMetrics.addCacheStatistics(CHECKSUM_CACHE_STATISTICS, bundleArchiveCache.getChecksumStatistics());
+        repositoryMetrics.addCacheStatistics(RENDERED_DOCUMENT_CACHE_STATISTICS, pomGenerator.getRenderedDocumentStatistics());
+        repositoryMetrics.addCounter(COALESCED_BUILDS_COUNTER, coalescedBuildsCounter);
+        repositoryMetrics.addCounter(ACTIVE_BUILDS_COUNTER, activeBuildsCounter);
+        repositoryMetrics.addCounter(QUEUED_REQUESTS_COUNTER, queuedRequestsCounter);
+        repositoryMetrics.addCounter(REJECTED_REQUESTS_COUNTER, rejectedRequestsCounter);
+
+        if (PropertiesUtil.toBoolean(properties.get(PROP_WARM_UP_ENABLED), PROP_WARM_UP_ENABLED_DEFAULT_VALUE)) {
+            int warmUpThreads = PropertiesUtil.toInteger(properties.get(PROP_WARM_UP_THREADS), PROP_WARM_UP_THREADS_DEFAULT_VALUE);
+            int warmUpCpuPercent = PropertiesUtil.toInteger(properties.get(PROP_WARM_UP_CPU_PERCENT), PROP_WARM_UP_CPU_PERCENT_DEFAULT_VALUE);
+            artifactWarmUp = new ArtifactWarmUp(bundleArchiveCache, warmUpThreads, warmUpCpuPercent);
+            pomGenerator.addArtifactIndexListener(warmUpListener);
+            repositoryMetrics.addCounter(WARM_UP_PENDING_COUNTER, warmUpPendingCounter);
+            repositoryMetrics.addCounter(WARM_UP_WARMED_COUNTER, warmUpWarmedCounter);
+            repositoryMetrics.addCounter(WARM_UP_FAILED_COUNTER, warmUpFailedCounter);
+            artifactWarmUp.warmUp(pomGenerator, bundleContext);
+        }
 
+        if (PropertiesUtil.toBoolean(properties.get(PROP_NEXUS_INDEX_ENABLED), PROP_NEXUS_INDEX_ENABLED_DEFAULT_VALUE)) {
+            int nexusIndexIncrementalChunks = PropertiesUtil.toInteger(properties.get(PROP_NEXUS_INDEX_INCREMENTAL_CHUNKS), PROP_NEXUS_INDEX_INCREMENTAL_CHUNKS_DEFAULT_VALUE);
+            nexusIndexPublisher = new NexusIndexPublisher(bundleArchiveCache, bundleContext.getDataFile(NEXUS_INDEX_DIRECTORY), NEXUS_INDEX_REPOSITORY_ID, nexusIndexIncrementalChunks);
+            pomGenerator.addArtifactIndexListener(nexusIndexListener);
+            nexusIndexPublisher.publish(pomGenerator, bundleContext);
+        }
+
+        registerServlet();
+    }
+
+    /**
+     * Registers the servlet with asynchronous support through the HTTP whiteboard. Without a whiteboard it's
+     * registered through the HTTP service, which doesn't support asynchronous requests.
+     */
+    private void registerServlet() {
+        if (bundleContext.getServiceReference(HTTP_SERVICE_RUNTIME) != null) {
+            Hashtable<String, Object> whiteboardProperties = new Hashtable<>();
+            whiteboardProperties.put(WHITEBOARD_SERVLET_NAME, MavenRepositoryServlet.class.getName());
+            whiteboardProperties.put(WHITEBOARD_SERVLET_PATTERN, new String[]{repositoryServletPath, repositoryServletPath + "/*"});
+            whiteboardProperties.put(WHITEBOARD_SERVLET_ASYNC_SUPPORTED, Boolean.TRUE);
+            whiteboardRegistration = bundleContext.registerService(Servlet.class.getName(), this, whiteboardProperties);
+            return;
+        }
+
+        LOG.warn("No HTTP whiteboard available, asynchronous responses are disabled and archives are built and sent on the container threads.");
         try {
             httpService.registerServlet(repositoryServletPath, this, null, null);
         } catch (ServletException e) {
@@ -239,8 +944,54 @@ public class MavenRepositoryServlet extends HttpServlet {
         }
     }
 
-    protected void deactivate(ComponentContext componentContext) {
+    private void unregisterServlet() {
+        if (whiteboardRegistration != null) {
+            whiteboardRegistration.unregister();
+            whiteboardRegistration = null;
+        } else if (httpService != null) {
+            httpService.unregister(repositoryServletPath);
+        }
+    }
+
+    private File getFrameworkStorageDirectory() {
+        String frameworkStorage = bundleContext.getProperty(FRAMEWORK_STORAGE_PROPERTY);
+        frameworkStorage = frameworkStorage != null ? frameworkStorage : FRAMEWORK_STORAGE_DEFAULT_VALUE;
 
-        httpService.unregister(repositoryServletPath);
+        File frameworkStorageDirectory = new File(frameworkStorage);
+        String cacheRootDirectory = bundleContext.getProperty(FELIX_CACHE_ROOTDIR_PROPERTY);
+        if (!frameworkStorageDirectory.isAbsolute() && cacheRootDirectory != null) {
+            frameworkStorageDirectory = new File(cacheRootDirectory, frameworkStorage);
+        }
+
+        return frameworkStorageDirectory.isDirectory() ? frameworkStorageDirectory : null;
+    }
+
+    protected void deactivate(ComponentContext componentContext) {
+        bundleContext.removeBundleListener(archiveInvalidationListener);
+        unregisterServlet();
+        repositoryMetrics.removeCacheStatistics(ARCHIVE_CACHE_STATISTICS);
+        repositoryMetrics.removeCacheStatistics(CHECKSUM_CACHE_STATISTICS);
+        repositoryMetrics.removeCacheStatistics(RENDERED_DOCUMENT_CACHE_STATISTICS);
+        repositoryMetrics.removeCounter(COALESCED_BUILDS_COUNTER);
+        repositoryMetrics.removeCounter(ACTIVE_BUILDS_COUNTER);
+        repositoryMetrics.removeCounter(QUEUED_REQUESTS_COUNTER);
+        repositoryMetrics.removeCounter(REJECTED_REQUESTS_COUNTER);
+        if (artifactWarmUp != null) {
+            pomGenerator.removeArtifactIndexListener(warmUpListener);
+            repositoryMetrics.removeCounter(WARM_UP_PENDING_COUNTER);
+            repositoryMetrics.removeCounter(WARM_UP_WARMED_COUNTER);
+            repositoryMetrics.removeCounter(WARM_UP_FAILED_COUNTER);
+            artifactWarmUp.shutdown();
+            artifactWarmUp = null;
+        }
+        if (nexusIndexPublisher != null) {
+            pomGenerator.removeArtifactIndexListener(nexusIndexListener);
+            nexusIndexPublisher.shutdown();
+            nexusIndexPublisher = null;
+        }
+        asyncResponseSender.shutdown();
+        exportExecutor.shutdownNow();
+        archiveBuilderExecutor.shutdownNow();
+        bundleArchiveBuilder.shutdown();
     }
 }
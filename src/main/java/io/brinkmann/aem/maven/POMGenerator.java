@@ -1,6 +1,8 @@
 package io.brinkmann.aem.maven;
 
+import io.brinkmann.aem.maven.model.ArtifactIndex;
 import io.brinkmann.aem.maven.model.ArtifactInformation;
+import io.brinkmann.aem.maven.model.RenderedDocument;
 import org.osgi.framework.BundleContext;
 
 import java.io.IOException;
@@ -16,5 +18,20 @@ public interface POMGenerator {
 
     String generateDependenciesPomFragment(BundleContext bundleContext, String dependencyOutputPrefix) throws IOException;
 
+    RenderedDocument renderPOM(BundleContext bundleContext, String groupId, String artifactId, String version) throws IOException;
+
+    RenderedDocument renderDependenciesPomFragment(BundleContext bundleContext, String dependencyOutputPrefix) throws IOException;
+
     Set<ArtifactInformation> getGeneratedDependencyList(BundleContext bundleContext) throws IOException;
+
+    ArtifactIndex getArtifactIndex(BundleContext bundleContext) throws IOException;
+
+    /**
+     * @return hits and misses of the rendered POM documents
+     */
+    CacheStatistics getRenderedDocumentStatistics();
+
+    void addArtifactIndexListener(ArtifactIndexListener listener);
+
+    void removeArtifactIndexListener(ArtifactIndexListener listener);
 }
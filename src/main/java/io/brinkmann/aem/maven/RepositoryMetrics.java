@@ -0,0 +1,39 @@
+package io.brinkmann.aem.maven;
+
+import io.brinkmann.aem.maven.model.RequestTimer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Collects latency, traffic and cache statistics of the repository endpoints.
+ */
+public interface RepositoryMetrics {
+
+    String ENDPOINT_REPOSITORY = "repository";
+
+    String ENDPOINT_DEPENDENCIES = "dependencies";
+
+    RequestTimer startRequest(String endpoint, String path);
+
+    /**
+     * Stops the timer and adds the request to the statistics of its endpoint and file type.
+     */
+    void recordRequest(RequestTimer timer);
+
+    /**
+     * Includes the hit ratio of a cache in the statistics, a cache registered before under the same name is replaced.
+     */
+    void addCacheStatistics(String name, CacheStatistics statistics);
+
+    void removeCacheStatistics(String name);
+
+    /**
+     * Includes a counter in the statistics, a counter registered before under the same name is replaced.
+     */
+    void addCounter(String name, Counter counter);
+
+    void removeCounter(String name);
+
+    void writeJson(Writer output) throws IOException;
+}
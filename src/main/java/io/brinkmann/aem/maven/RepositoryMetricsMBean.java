@@ -0,0 +1,36 @@
+package io.brinkmann.aem.maven;
+
+/**
+ * Management interface of the {@link RepositoryMetrics}. Latencies are given in milliseconds.
+ */
+public interface RepositoryMetricsMBean {
+
+    long getRequests();
+
+    long getBytesSent();
+
+    long getNotFound();
+
+    long getSlowRequests();
+
+    long getRejected();
+
+    /**
+     * @return one line per endpoint and file type with counters and latency percentiles
+     */
+    String[] getRequestStatistics();
+
+    /**
+     * @return one line per cache with hits, misses and hit ratio
+     */
+    String[] getCacheStatistics();
+
+    /**
+     * @return one line per counter registered by other components
+     */
+    String[] getCounters();
+
+    String getJson();
+
+    void reset();
+}
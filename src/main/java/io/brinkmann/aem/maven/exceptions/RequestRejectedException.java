@@ -0,0 +1,13 @@
+package io.brinkmann.aem.maven.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown in case a request exceeds the limits of the admission control and has to be retried later.
+ */
+public class RequestRejectedException extends IOException {
+
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,190 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.exceptions.RequestRejectedException;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the requests which may build archives. A fixed number of builds runs at the same time, further requests
+ * wait in a bounded queue for a build permit. Requests beyond the queue, or beyond the number of requests a single
+ * client may have in flight, are rejected right away instead of piling up.
+ */
+public class AdmissionController {
+
+    private final Semaphore buildPermits;
+
+    private final int maxConcurrentBuilds;
+
+    private final int maxQueuedRequests;
+
+    private final int maxRequestsPerClient;
+
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+
+    private final ConcurrentMap<String, Integer> clientRequests = new ConcurrentHashMap<>();
+
+    private final AtomicLong rejectedRequests = new AtomicLong();
+
+    /**
+     * @param maxConcurrentBuilds  number of archives built at the same time
+     * @param maxQueuedRequests    number of requests waiting for a build permit
+     * @param maxRequestsPerClient number of admitted requests per client, 0 for no limit
+     */
+    public AdmissionController(int maxConcurrentBuilds, int maxQueuedRequests, int maxRequestsPerClient) {
+        this.maxConcurrentBuilds = Math.max(1, maxConcurrentBuilds);
+        this.maxQueuedRequests = Math.max(0, maxQueuedRequests);
+        this.maxRequestsPerClient = Math.max(0, maxRequestsPerClient);
+        this.buildPermits = new Semaphore(this.maxConcurrentBuilds, true);
+    }
+
+    /**
+     * Admission of a single request, released once its response is completed.
+     */
+    public class Ticket {
+
+        private final String client;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private boolean holdsBuildPermit;
+
+        private Ticket(String client) {
+            this.client = client;
+        }
+
+        /**
+         * Acquires a build permit, a permit already held is kept.
+         *
+         * @param wait true to wait in the queue in case all permits are taken, false to be rejected right away
+         * @throws RequestRejectedException in case no permit is available and the request may not wait or the
+         *                                  queue of waiting requests is full
+         */
+        public void acquireBuildPermit(boolean wait) throws InterruptedIOException, RequestRejectedException {
+            if (holdsBuildPermit) {
+                return;
+            }
+            if (!buildPermits.tryAcquire()) {
+                if (!wait) {
+                    rejectedRequests.incrementAndGet();
+                    throw new RequestRejectedException("All archive builds are busy");
+                }
+                if (queuedRequests.incrementAndGet() > maxQueuedRequests) {
+                    queuedRequests.decrementAndGet();
+                    rejectedRequests.incrementAndGet();
+                    throw new RequestRejectedException("Too many requests waiting for an archive build");
+                }
+                try {
+                    buildPermits.acquire();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a build permit");
+                } finally {
+                    queuedRequests.decrementAndGet();
+                }
+            }
+            holdsBuildPermit = true;
+        }
+
+        public void releaseBuildPermit() {
+            if (holdsBuildPermit) {
+                holdsBuildPermit = false;
+                buildPermits.release();
+            }
+        }
+
+        /**
+         * Releases the build permit and the admission of the client, further calls have no effect.
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                releaseBuildPermit();
+                releaseClient(client);
+            }
+        }
+    }
+
+    /**
+     * @param client address of the client sending the request
+     * @return the ticket of the admitted request
+     * @throws RequestRejectedException in case the client has too many requests in flight or the queue is full
+     */
+    public Ticket admit(String client) throws RequestRejectedException {
+        if (queuedRequests.get() >= maxQueuedRequests && buildPermits.availablePermits() == 0) {
+            rejectedRequests.incrementAndGet();
+            throw new RequestRejectedException("Too many requests waiting for an archive build");
+        }
+        if (!acquireClient(client)) {
+            rejectedRequests.incrementAndGet();
+            throw new RequestRejectedException("Too many requests of client [" + client + "]");
+        }
+        return new Ticket(client);
+    }
+
+    private boolean acquireClient(String client) {
+        if (maxRequestsPerClient == 0) {
+            return true;
+        }
+        while (true) {
+            Integer requests = clientRequests.get(client);
+            if (requests == null) {
+                if (clientRequests.putIfAbsent(client, 1) == null) {
+                    return true;
+                }
+            } else if (requests >= maxRequestsPerClient) {
+                return false;
+            } else if (clientRequests.replace(client, requests, requests + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void releaseClient(String client) {
+        if (maxRequestsPerClient == 0) {
+            return;
+        }
+        while (true) {
+            Integer requests = clientRequests.get(client);
+            if (requests == null) {
+                return;
+            }
+            if (requests <= 1 ? clientRequests.remove(client, requests) : clientRequests.replace(client, requests, requests - 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits for a build permit outside of a request admission, e.g. for an archive built by an export. The caller
+     * releases it with {@link #releaseBuildPermit()} once the archive is built.
+     */
+    public void awaitBuildPermit() throws InterruptedIOException {
+        try {
+            buildPermits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a build permit");
+        }
+    }
+
+    public void releaseBuildPermit() {
+        buildPermits.release();
+    }
+
+    public int getActiveBuilds() {
+        return maxConcurrentBuilds - buildPermits.availablePermits();
+    }
+
+    public int getQueuedRequests() {
+        return queuedRequests.get();
+    }
+
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+}
@@ -0,0 +1,187 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.model.ArtifactComment;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the scan results of the bundles in a compact binary file, so a restart only rescans the bundles modified
+ * since the file was written. Each bundle is stored with its id, the modification time it had when it was scanned
+ * and its artifacts or skip comments. The file is only used in case it was written with the same configuration.
+ */
+public class ArtifactIndexStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactIndexStore.class);
+
+    private static final int MAGIC = 0x414d5249;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte KIND_COMMENT = 0;
+
+    private static final byte KIND_ARTIFACT = 1;
+
+    private final File file;
+
+    private final String configurationKey;
+
+    /**
+     * Scan result of a bundle as read from the file.
+     */
+    public static class StoredBundle {
+
+        private final long lastModified;
+
+        private final List<String[]> artifacts;
+
+        private StoredBundle(long lastModified, List<String[]> artifacts) {
+            this.lastModified = lastModified;
+            this.artifacts = artifacts;
+        }
+
+        /**
+         * @return modification time of the bundle when it was scanned
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the stored artifacts, associated with the running bundle
+         */
+        public List<ArtifactInformation> getArtifacts(Bundle bundle) {
+            List<ArtifactInformation> bundleArtifacts = new ArrayList<>(artifacts.size());
+            for (String[] artifact : artifacts) {
+                if (artifact.length == 1) {
+                    bundleArtifacts.add(new ArtifactComment(artifact[0]));
+                } else {
+                    bundleArtifacts.add(new ArtifactInformation(artifact[0], artifact[1], artifact[2], artifact[3], bundle));
+                }
+            }
+            return bundleArtifacts;
+        }
+    }
+
+    /**
+     * @param file             file holding the scan results, null disables the store
+     * @param configurationKey identifies the configuration the bundles are scanned with, stored results of a
+     *                         different configuration are discarded
+     */
+    public ArtifactIndexStore(File file, String configurationKey) {
+        this.file = file;
+        this.configurationKey = configurationKey;
+    }
+
+    /**
+     * @return the stored scan results by bundle id, empty in case there is no valid file
+     */
+    public Map<Long, StoredBundle> load() {
+        if (file == null || !file.isFile()) {
+            return Collections.emptyMap();
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                LOGGER.info("Stored artifact index [" + file + "] has an unknown format, all bundles are scanned.");
+                return Collections.emptyMap();
+            }
+            if (!configurationKey.equals(input.readUTF())) {
+                LOGGER.info("Configuration changed since the artifact index was stored, all bundles are scanned.");
+                return Collections.emptyMap();
+            }
+
+            int bundleCount = input.readInt();
+            Map<Long, StoredBundle> storedBundles = new HashMap<>(bundleCount * 2);
+            for (int i = 0; i < bundleCount; i++) {
+                long bundleId = input.readLong();
+                long lastModified = input.readLong();
+                int artifactCount = input.readInt();
+                List<String[]> artifacts = new ArrayList<>(artifactCount);
+                for (int j = 0; j < artifactCount; j++) {
+                    if (input.readByte() == KIND_COMMENT) {
+                        artifacts.add(new String[]{input.readUTF()});
+                    } else {
+                        artifacts.add(new String[]{input.readUTF(), input.readUTF(), input.readUTF(), input.readUTF()});
+                    }
+                }
+                storedBundles.put(bundleId, new StoredBundle(lastModified, artifacts));
+            }
+            return storedBundles;
+        } catch (IOException ex) {
+            LOGGER.warn("Cannot read stored artifact index [" + file + "], all bundles are scanned.", ex);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Replaces the file with the given scan results.
+     *
+     * @param bundleArtifacts  artifacts by bundle id
+     * @param bundleRevisions  modification time of the bundles when they were scanned, by bundle id
+     */
+    public void save(Map<Long, List<ArtifactInformation>> bundleArtifacts, Map<Long, Long> bundleRevisions) {
+        if (file == null) {
+            return;
+        }
+
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeUTF(configurationKey);
+
+                List<Long> bundleIds = new ArrayList<>();
+                for (Long bundleId : bundleArtifacts.keySet()) {
+                    if (bundleRevisions.containsKey(bundleId)) {
+                        bundleIds.add(bundleId);
+                    }
+                }
+                output.writeInt(bundleIds.size());
+                for (Long bundleId : bundleIds) {
+                    List<ArtifactInformation> artifacts = bundleArtifacts.get(bundleId);
+                    output.writeLong(bundleId);
+                    output.writeLong(bundleRevisions.get(bundleId));
+                    output.writeInt(artifacts.size());
+                    for (ArtifactInformation artifact : artifacts) {
+                        if (artifact instanceof ArtifactComment) {
+                            output.writeByte(KIND_COMMENT);
+                            output.writeUTF(artifact.getArtifactComment());
+                        } else {
+                            output.writeByte(KIND_ARTIFACT);
+                            output.writeUTF(artifact.getGroupId());
+                            output.writeUTF(artifact.getArtifactId());
+                            output.writeUTF(artifact.getVersion());
+                            output.writeUTF(artifact.getArtifactComment());
+                        }
+                    }
+                }
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOGGER.warn("Cannot store artifact index in [" + file + "]", ex);
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                LOGGER.warn("Cannot delete temporary file [" + temporaryFile + "]");
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.POMGenerator;
+import io.brinkmann.aem.maven.model.ArtifactIndex;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the archives, POM files, metadata and their checksums of all artifacts of an index in the background, so
+ * the first Maven build after a restart or an update of bundles doesn't wait for them. The work runs on a small pool
+ * of low priority threads. Each thread pauses after an artifact in relation to the time it spent on it, which caps
+ * its share of a processor. A warm-up run is abandoned as soon as a newer index is handed over.
+ */
+public class ArtifactWarmUp {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactWarmUp.class);
+
+    private static final int PROGRESS_LOG_INTERVAL = 50;
+
+    private final BundleArchiveCache bundleArchiveCache;
+
+    private final ExecutorService executor;
+
+    private final int cpuPercent;
+
+    private final AtomicLong currentRun = new AtomicLong();
+
+    private final AtomicInteger pendingArtifacts = new AtomicInteger();
+
+    private final AtomicLong warmedArtifacts = new AtomicLong();
+
+    private final AtomicLong failedArtifacts = new AtomicLong();
+
+    /**
+     * @param threads    number of threads warming artifacts in parallel
+     * @param cpuPercent share of a processor each thread may use, from 1 to 100
+     */
+    public ArtifactWarmUp(BundleArchiveCache bundleArchiveCache, int threads, int cpuPercent) {
+        this.bundleArchiveCache = bundleArchiveCache;
+        this.cpuPercent = Math.max(1, Math.min(100, cpuPercent));
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                NamedThreadFactory.preferVirtualThreads("aem-maven-repository-warmup", Thread.MIN_PRIORITY));
+    }
+
+    /**
+     * Loads the current index on a warm-up thread and starts warming its artifacts, so the caller isn't blocked by
+     * the initial scan of the bundles.
+     */
+    public void warmUp(final POMGenerator pomGenerator, final BundleContext bundleContext) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        warmUp(pomGenerator.getArtifactIndex(bundleContext));
+                    } catch (Exception ex) {
+                        LOGGER.error("Cannot load artifact index for warm-up.", ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("Warm-up not started because the executor is shut down.");
+        }
+    }
+
+    /**
+     * Starts warming the artifacts of the index, a run in progress for a previous index is abandoned.
+     * Artifacts already built for their current bundle revision are skipped quickly by the cache.
+     */
+    public void warmUp(ArtifactIndex artifactIndex) {
+        final long run = currentRun.incrementAndGet();
+
+        List<ArtifactInformation> artifacts = new ArrayList<>();
+        for (ArtifactInformation artifact : artifactIndex.getDependencies()) {
+            if (artifact.getAssociatedBundle() != null) {
+                artifacts.add(artifact);
+            }
+        }
+
+        final int total = artifacts.size();
+        final AtomicInteger completed = new AtomicInteger();
+        final long startTime = System.currentTimeMillis();
+        LOGGER.info("Warm-up of [" + total + "] artifacts of index generation [" + artifactIndex.getGeneration() + "] started.");
+
+        for (final ArtifactInformation artifact : artifacts) {
+            pendingArtifacts.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (run == currentRun.get()) {
+                                warmUp(artifact);
+                                int completedArtifacts = completed.incrementAndGet();
+                                if (completedArtifacts % PROGRESS_LOG_INTERVAL == 0) {
+                                    LOGGER.debug("Warm-up progress [" + completedArtifacts + "/" + total + "]");
+                                }
+                                if (completedArtifacts == total) {
+                                    LOGGER.info("Warm-up of [" + total + "] artifacts finished in [" + (System.currentTimeMillis() - startTime) + "ms]");
+                                }
+                            }
+                        } finally {
+                            pendingArtifacts.decrementAndGet();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                pendingArtifacts.decrementAndGet();
+                LOGGER.debug("Warm-up stopped because the executor is shut down.");
+                return;
+            }
+        }
+    }
+
+    private void warmUp(ArtifactInformation artifact) {
+        Bundle bundle = artifact.getAssociatedBundle();
+        long startTime = System.nanoTime();
+        try {
+            bundleArchiveCache.getChecksums(bundle);
+            // the maven-metadata.xml of the artifact id directory is rendered with the index already
+            artifact.getPomDocument().getChecksums();
+            artifact.getMavenMetadataDocument().getChecksums();
+            warmedArtifacts.incrementAndGet();
+        } catch (Exception ex) {
+            failedArtifacts.incrementAndGet();
+            LOGGER.warn("Warm-up of artifact [" + artifact.getArtifactIdentifier() + "] failed.", ex);
+        }
+
+        if (cpuPercent < 100) {
+            long workMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            long pauseMillis = workMillis * (100 - cpuPercent) / cpuPercent;
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getPendingArtifacts() {
+        return pendingArtifacts.get();
+    }
+
+    public long getWarmedArtifacts() {
+        return warmedArtifacts.get();
+    }
+
+    public long getFailedArtifacts() {
+        return failedArtifacts.get();
+    }
+
+    public void shutdown() {
+        currentRun.incrementAndGet();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,223 @@
+package io.brinkmann.aem.maven.impl;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands the bytes written by a producer thread over to the non-blocking output of an asynchronous response.
+ * The producer fills chunks which are queued and written by whichever thread finds the servlet output ready,
+ * the producer itself or the container calling {@link #onWritePossible()}. No container thread waits for a slow
+ * client, the producer waits as soon as the queue is full, which bounds the memory of a response.
+ */
+public class AsyncResponseOutput extends OutputStream implements WriteListener, AsyncListener {
+
+    private static final Chunk END_OF_RESPONSE = new Chunk(new byte[0], 0);
+
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final AsyncContext asyncContext;
+
+    private final ServletOutputStream output;
+
+    private final BlockingQueue<Chunk> chunks;
+
+    private final int chunkSize;
+
+    private final Runnable completion;
+
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    private byte[] buffer;
+
+    private int bufferLength;
+
+    private boolean closed;
+
+    /**
+     * The container calls {@link #onWritePossible()} for the first time once the listener is registered.
+     */
+    private boolean writeBlocked = true;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param maxQueuedChunks number of chunks waiting for the client before the producer is paused
+     * @param completion      called once after the response has been completed, successfully or not
+     */
+    public AsyncResponseOutput(AsyncContext asyncContext, ServletOutputStream output, int chunkSize, int maxQueuedChunks, Runnable completion) {
+        this.asyncContext = asyncContext;
+        this.output = output;
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<>(Math.max(1, maxQueuedChunks));
+        this.completion = completion;
+    }
+
+    private static class Chunk {
+
+        private final byte[] data;
+
+        private final int length;
+
+        private Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (buffer == null) {
+                buffer = new byte[chunkSize];
+            }
+            int copyLength = Math.min(length, chunkSize - bufferLength);
+            System.arraycopy(data, offset, buffer, bufferLength, copyLength);
+            bufferLength += copyLength;
+            offset += copyLength;
+            length -= copyLength;
+            if (bufferLength == chunkSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Queues the bytes written so far.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (bufferLength > 0) {
+            enqueue(new Chunk(buffer, bufferLength));
+            buffer = null;
+            bufferLength = 0;
+        }
+    }
+
+    /**
+     * Queues the remaining bytes, the response is completed as soon as they're written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            flush();
+            enqueue(END_OF_RESPONSE);
+        }
+    }
+
+    /**
+     * Completes the response without sending the queued bytes, used in case the producer failed.
+     */
+    public void abort(Throwable cause) {
+        if (failure == null) {
+            failure = cause != null ? cause : new IOException("Response aborted");
+        }
+        chunks.clear();
+        complete();
+    }
+
+    private void enqueue(Chunk chunk) throws IOException {
+        try {
+            while (!chunks.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the client");
+        }
+        checkFailure();
+        drain();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Response cannot be written", failure);
+        }
+    }
+
+    /**
+     * Writes the queued chunks until the queue is empty or the servlet output isn't ready anymore.
+     */
+    private synchronized void drain() throws IOException {
+        while (!writeBlocked && !completed.get()) {
+            if (!output.isReady()) {
+                writeBlocked = true;
+                return;
+            }
+            Chunk chunk = chunks.poll();
+            if (chunk == null) {
+                return;
+            }
+            if (chunk == END_OF_RESPONSE) {
+                complete();
+                return;
+            }
+            output.write(chunk.data, 0, chunk.length);
+        }
+    }
+
+    private void complete() {
+        if (completed.compareAndSet(false, true)) {
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException ex) {
+                // already completed by the container
+            } finally {
+                completion.run();
+            }
+        }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        synchronized (this) {
+            writeBlocked = false;
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        abort(throwable);
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        if (completed.compareAndSet(false, true)) {
+            if (failure == null) {
+                failure = new IOException("Response completed by the container");
+            }
+            completion.run();
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        abort(new IOException("Response timed out"));
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        abort(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // not dispatched again
+    }
+}
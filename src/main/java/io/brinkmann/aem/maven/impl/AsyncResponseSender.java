@@ -0,0 +1,137 @@
+package io.brinkmann.aem.maven.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Produces large responses on a bounded pool of its own and writes them with Servlet 3.1 non-blocking IO, so the
+ * container thread is released while an archive is built and while the bytes drain to a slow client.
+ * Containers without asynchronous support get the response written synchronously on the container thread.
+ */
+public class AsyncResponseSender {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncResponseSender.class);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int MAX_QUEUED_CHUNKS = 4;
+
+    private final ExecutorService executor;
+
+    private final long timeoutMillis;
+
+    private final AtomicBoolean synchronousFallbackLogged = new AtomicBoolean();
+
+    /**
+     * Writes the content of a response. Headers may still be set before the first byte is written.
+     */
+    public interface ResponseContent {
+
+        /**
+         * @param asynchronous false in case the content is written on the container thread, which shouldn't wait
+         *                     for anything but the client
+         */
+        void writeTo(OutputStream output, boolean asynchronous) throws IOException;
+    }
+
+    /**
+     * @param threads       number of threads producing responses, virtual threads are used where the JVM supports them
+     * @param queueSize     number of responses waiting for a thread, further responses are produced on the container thread
+     * @param timeoutMillis time an asynchronous response may take, 0 for no limit
+     */
+    public AsyncResponseSender(int threads, int queueSize, long timeoutMillis) {
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                NamedThreadFactory.preferVirtualThreads("aem-maven-repository-response", Thread.NORM_PRIORITY));
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sends the content, asynchronously in case the request supports it.
+     *
+     * @param completion called after an asynchronous response has been completed, it isn't called in case the
+     *                   request doesn't support asynchronous processing
+     */
+    public void send(HttpServletRequest request, final HttpServletResponse response, final ResponseContent content, final Runnable completion) throws IOException {
+        if (!request.isAsyncSupported()) {
+            if (synchronousFallbackLogged.compareAndSet(false, true)) {
+                LOGGER.info("Request [" + request.getRequestURI() + "] doesn't support asynchronous processing, responses without it are written on the container thread.");
+            }
+            content.writeTo(response.getOutputStream(), false);
+            return;
+        }
+
+        final AsyncContext asyncContext;
+        try {
+            asyncContext = request.startAsync();
+        } catch (IllegalStateException ex) {
+            LOGGER.debug("Asynchronous processing not possible, writing response on the container thread.", ex);
+            try {
+                content.writeTo(response.getOutputStream(), false);
+            } finally {
+                completion.run();
+            }
+            return;
+        }
+        asyncContext.setTimeout(timeoutMillis);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeAsynchronously(asyncContext, response, content, completion);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("Response threads busy, writing response on the container thread.");
+            try {
+                content.writeTo(response.getOutputStream(), false);
+            } finally {
+                asyncContext.complete();
+                completion.run();
+            }
+        }
+    }
+
+    private void writeAsynchronously(AsyncContext asyncContext, HttpServletResponse response, ResponseContent content, Runnable completion) {
+        AsyncResponseOutput output;
+        try {
+            ServletOutputStream servletOutput = response.getOutputStream();
+            output = new AsyncResponseOutput(asyncContext, servletOutput, CHUNK_SIZE, MAX_QUEUED_CHUNKS, completion);
+            asyncContext.addListener(output);
+            servletOutput.setWriteListener(output);
+        } catch (Exception ex) {
+            LOGGER.warn("Cannot start asynchronous response.", ex);
+            asyncContext.complete();
+            completion.run();
+            return;
+        }
+
+        try {
+            content.writeTo(output, true);
+            output.close();
+        } catch (Exception ex) {
+            LOGGER.debug("Asynchronous response aborted.", ex);
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            output.abort(ex);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,251 @@
+package io.brinkmann.aem.maven.impl;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Rebuilds the JAR file of a bundle from its resources. The entries are read and deflated in parallel on the given
+ * executor and written in the order of {@link Bundle#findEntries(String, String, boolean)}. The number of entries
+ * held in memory is limited by the number of entries in flight. Already compressed resources like nested archives
+ * or images are stored without compression.
+ */
+public class BundleArchiveBuilder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleArchiveBuilder.class);
+
+    private static final Set<String> COMPRESSED_FILE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jar", "zip", "war", "ear", "gz", "tgz", "bz2", "xz", "7z",
+            "png", "jpg", "jpeg", "gif", "webp", "ico",
+            "woff", "woff2", "mp3", "mp4", "ogg", "pdf"));
+
+    private final ExecutorService executor;
+
+    private final int compressionLevel;
+
+    private final int maxEntriesInFlight;
+
+    private final Queue<Deflater> createdDeflaters = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            Deflater deflater = new Deflater(compressionLevel, true);
+            createdDeflaters.add(deflater);
+            return deflater;
+        }
+    };
+
+    /**
+     * @param executor           executor deflating the entries, the building thread deflates itself in case it's shut down
+     * @param compressionLevel   deflate level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param maxEntriesInFlight number of entries read and deflated ahead of the entry being written
+     */
+    public BundleArchiveBuilder(ExecutorService executor, int compressionLevel, int maxEntriesInFlight) {
+        if (!isValidCompressionLevel(compressionLevel)) {
+            throw new IllegalArgumentException("Invalid compression level [" + compressionLevel + "]");
+        }
+        this.executor = executor;
+        this.compressionLevel = compressionLevel;
+        this.maxEntriesInFlight = Math.max(1, maxEntriesInFlight);
+    }
+
+    public static boolean isValidCompressionLevel(int compressionLevel) {
+        return compressionLevel == Deflater.DEFAULT_COMPRESSION
+                || compressionLevel >= Deflater.NO_COMPRESSION && compressionLevel <= Deflater.BEST_COMPRESSION;
+    }
+
+    /**
+     * Writes the archive to the output stream, which is flushed but not closed.
+     *
+     * @throws IOException in case the archive exceeds the zip limits, see {@link ZipArchiveWriter}
+     */
+    public void writeArchive(Bundle bundle, OutputStream output) throws IOException {
+        Enumeration bundleResources = bundle.findEntries("/", null, true);
+        if (bundleResources == null) {
+            throw new IOException("No bundle resource found");
+        }
+
+        long time = bundle.getLastModified();
+        ZipArchiveWriter zipArchiveWriter = new ZipArchiveWriter(output);
+        Set<String> inZip = new HashSet<>();
+        Deque<Future<ArchiveEntry>> entriesInFlight = new ArrayDeque<>();
+        try {
+            while (bundleResources.hasMoreElements()) {
+                URL resource = (URL) bundleResources.nextElement();
+                String path = resource.getPath().substring(1);
+                if (path.isEmpty() || !inZip.add(path)) {
+                    continue;
+                }
+
+                entriesInFlight.add(submit(new ArchiveEntryTask(resource, path)));
+                if (entriesInFlight.size() >= maxEntriesInFlight) {
+                    writeEntry(zipArchiveWriter, entriesInFlight.poll(), time);
+                }
+            }
+            while (!entriesInFlight.isEmpty()) {
+                writeEntry(zipArchiveWriter, entriesInFlight.poll(), time);
+            }
+        } finally {
+            for (Future<ArchiveEntry> entryInFlight : entriesInFlight) {
+                entryInFlight.cancel(true);
+            }
+        }
+        zipArchiveWriter.finish();
+    }
+
+    private Future<ArchiveEntry> submit(ArchiveEntryTask task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            // the building thread may be a pooled container thread, it must not keep a deflater of its own
+            task.localDeflater = true;
+            FutureTask<ArchiveEntry> futureTask = new FutureTask<>(task);
+            futureTask.run();
+            return futureTask;
+        }
+    }
+
+    private void writeEntry(ZipArchiveWriter zipArchiveWriter, Future<ArchiveEntry> entryInFlight, long time) throws IOException {
+        ArchiveEntry entry;
+        try {
+            entry = entryInFlight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building archive");
+        } catch (ExecutionException ex) {
+            if (!(ex.getCause() instanceof IOException)) {
+                throw new IOException("Cannot build archive", ex.getCause());
+            }
+            LOGGER.warn("Issue while reading resource", ex.getCause());
+            return;
+        }
+        zipArchiveWriter.putEntry(entry.path, time, entry.method, entry.crc, entry.size, entry.data, entry.dataLength);
+    }
+
+    /**
+     * Releases the native memory of the deflaters, to be called once the executor is shut down.
+     */
+    public void shutdown() {
+        Deflater deflater;
+        while ((deflater = createdDeflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+
+    private static boolean isCompressed(String path) {
+        return COMPRESSED_FILE_EXTENSIONS.contains(FilenameUtils.getExtension(path).toLowerCase(Locale.ENGLISH));
+    }
+
+    private class ArchiveEntryTask implements Callable<ArchiveEntry> {
+
+        private final URL resource;
+
+        private final String path;
+
+        private boolean localDeflater;
+
+        private ArchiveEntryTask(URL resource, String path) {
+            this.resource = resource;
+            this.path = path;
+        }
+
+        @Override
+        public ArchiveEntry call() throws IOException {
+            if (path.endsWith("/")) {
+                return new ArchiveEntry(path, ZipArchiveWriter.METHOD_STORED, 0, 0, new byte[0], 0);
+            }
+
+            byte[] content;
+            InputStream input = resource.openStream();
+            try {
+                content = IOUtils.toByteArray(input);
+            } catch (IOException ex) {
+                throw new IOException("Issue while reading resource [" + resource + "]", ex);
+            } finally {
+                input.close();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(content);
+
+            if (compressionLevel != Deflater.NO_COMPRESSION && !isCompressed(path) && content.length > 0) {
+                ArchiveEntry deflatedEntry;
+                if (localDeflater) {
+                    Deflater deflater = new Deflater(compressionLevel, true);
+                    try {
+                        deflatedEntry = deflate(content, crc.getValue(), deflater);
+                    } finally {
+                        deflater.end();
+                    }
+                } else {
+                    deflatedEntry = deflate(content, crc.getValue(), deflaters.get());
+                }
+                if (deflatedEntry != null) {
+                    return deflatedEntry;
+                }
+                // deflated data isn't smaller than the content, the entry is stored instead
+            }
+
+            return new ArchiveEntry(path, ZipArchiveWriter.METHOD_STORED, crc.getValue(), content.length, content, content.length);
+        }
+
+        /**
+         * @return the deflated entry, null in case the deflated data isn't smaller than the content
+         */
+        private ArchiveEntry deflate(byte[] content, long crc, Deflater deflater) {
+            deflater.reset();
+            deflater.setInput(content);
+            deflater.finish();
+
+            byte[] compressed = new byte[content.length];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < compressed.length) {
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            return deflater.finished() ? new ArchiveEntry(path, ZipArchiveWriter.METHOD_DEFLATED, crc, content.length, compressed, compressedLength) : null;
+        }
+    }
+
+    private static class ArchiveEntry {
+
+        private final String path;
+
+        private final int method;
+
+        private final long crc;
+
+        private final long size;
+
+        private final byte[] data;
+
+        private final int dataLength;
+
+        private ArchiveEntry(String path, int method, long crc, long size, byte[] data, int dataLength) {
+            this.path = path;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.dataLength = dataLength;
+        }
+    }
+}
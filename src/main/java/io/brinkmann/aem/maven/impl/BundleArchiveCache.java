@@ -0,0 +1,439 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.CacheStatistics;
+import io.brinkmann.aem.maven.model.ArtifactChecksums;
+import org.apache.commons.io.output.NullOutputStream;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the JAR files rebuilt from the bundle resources in the data area of the bundle, so every bundle revision
+ * is zipped only once. The files are named <code>bundle-&lt;bundleId&gt;-&lt;lastModified&gt;.jar</code>, an updated
+ * bundle therefore never hits the archive of its previous revision.
+ * <p>
+ * The checksums of an archive are computed while it's written and kept in memory per bundle revision.
+ * Concurrent requests for the same bundle revision share a single build of the archive and its checksums.
+ * <p>
+ * In passthrough mode the original JAR file of the bundle is served as it is, as long as it can be found through
+ * the bundle location or in the bundle cache of the framework. Only bundles without such a file are rebuilt.
+ */
+public class BundleArchiveCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleArchiveCache.class);
+
+    private static final String ARCHIVE_FILE_PREFIX = "bundle-";
+
+    private static final String ARCHIVE_FILE_SUFFIX = ".jar";
+
+    private static final String REFERENCE_LOCATION_PREFIX = "reference:";
+
+    private static final String FILE_LOCATION_PREFIX = "file:";
+
+    private static final String FRAMEWORK_BUNDLE_DIRECTORY_PREFIX = "bundle";
+
+    private static final String FRAMEWORK_REVISION_DIRECTORY_PREFIX = "version";
+
+    private static final String FRAMEWORK_BUNDLE_FILE = "bundle.jar";
+
+    private static final File NO_ORIGINAL_ARCHIVE = new File("");
+
+    private final BundleArchiveBuilder archiveBuilder;
+
+    private final File cacheDirectory;
+
+    private final File frameworkStorageDirectory;
+
+    private final boolean passthrough;
+
+    private final ConcurrentMap<String, ArtifactChecksums> archiveChecksums = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, File> originalArchives = new ConcurrentHashMap<>();
+
+    private final SingleFlight<String, File> archiveBuilds = new SingleFlight<>();
+
+    private final SingleFlight<String, ArtifactChecksums> checksumComputations = new SingleFlight<>();
+
+    private final CacheCounter archiveStatistics = new CacheCounter();
+
+    private final CacheCounter checksumStatistics = new CacheCounter();
+
+    /**
+     * @param archiveBuilder            rebuilds the archive of bundles without original JAR file
+     * @param cacheDirectory            directory holding the archives, null disables the cache and every request builds the archive
+     * @param frameworkStorageDirectory bundle cache of the framework, may be null
+     * @param passthrough               serve the original JAR file of a bundle when one is found
+     */
+    public BundleArchiveCache(BundleArchiveBuilder archiveBuilder, File cacheDirectory, File frameworkStorageDirectory, boolean passthrough) {
+        this.archiveBuilder = archiveBuilder;
+        this.cacheDirectory = cacheDirectory;
+        this.frameworkStorageDirectory = frameworkStorageDirectory;
+        this.passthrough = passthrough;
+        if (cacheDirectory != null && !cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            LOGGER.warn("Cannot create archive cache directory [" + cacheDirectory + "]");
+        }
+    }
+
+    /**
+     * Writes the archive of the bundle to the output. The archive is built and stored in the cache on the first request,
+     * following requests copy the stored file with {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+     */
+    public void writeArchive(Bundle bundle, OutputStream output) throws IOException {
+        File archive = getArchive(bundle);
+        if (archive != null) {
+            transferFile(archive, output);
+        } else {
+            ChecksumOutputStream checksumOutput = new ChecksumOutputStream(output);
+            archiveBuilder.writeArchive(bundle, checksumOutput);
+            archiveChecksums.put(getRevisionKey(bundle), checksumOutput.getChecksums());
+        }
+    }
+
+    /**
+     * @return the checksums of the archive of the current bundle revision, the archive is built in case it's not cached yet
+     */
+    public ArtifactChecksums getChecksums(final Bundle bundle) throws IOException {
+        final String revisionKey = getRevisionKey(bundle);
+        ArtifactChecksums checksums = archiveChecksums.get(revisionKey);
+        if (checksums != null) {
+            checksumStatistics.recordHit();
+        } else {
+            checksumStatistics.recordMiss();
+            final File archive = getArchive(bundle);
+            checksums = archiveChecksums.get(revisionKey);
+            if (checksums == null) {
+                checksums = checksumComputations.execute(revisionKey, new Callable<ArtifactChecksums>() {
+                    @Override
+                    public ArtifactChecksums call() throws IOException {
+                        ArtifactChecksums checksums = archiveChecksums.get(revisionKey);
+                        if (checksums != null) {
+                            return checksums;
+                        }
+                        ChecksumOutputStream checksumOutput = new ChecksumOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+                        if (archive != null) {
+                            // original bundle file or archive stored before the last restart of the bundle
+                            transferFile(archive, checksumOutput);
+                        } else {
+                            archiveBuilder.writeArchive(bundle, checksumOutput);
+                        }
+                        checksums = checksumOutput.getChecksums();
+                        archiveChecksums.put(revisionKey, checksums);
+                        return checksums;
+                    }
+                });
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * @return the checksums of the current bundle revision in case they're already known, null otherwise
+     */
+    public ArtifactChecksums getAvailableChecksums(Bundle bundle) {
+        return archiveChecksums.get(getRevisionKey(bundle));
+    }
+
+    /**
+     * @return the archive file of the current bundle revision, either the original bundle file or the rebuilt archive.
+     * null in case there is no original file and the cache is disabled.
+     */
+    public File getArchive(final Bundle bundle) throws IOException {
+        File originalArchive = findOriginalArchive(bundle);
+        if (originalArchive != null) {
+            return originalArchive;
+        }
+
+        if (cacheDirectory == null) {
+            return null;
+        }
+
+        final File archive = new File(cacheDirectory, getArchiveFileName(bundle));
+        if (archive.isFile()) {
+            archiveStatistics.recordHit();
+            return archive;
+        }
+        archiveStatistics.recordMiss();
+
+        return archiveBuilds.execute(getRevisionKey(bundle), new Callable<File>() {
+            @Override
+            public File call() throws IOException {
+                if (!archive.isFile()) {
+                    buildArchive(bundle, archive);
+                }
+                return archive;
+            }
+        });
+    }
+
+    private void buildArchive(Bundle bundle, File archive) throws IOException {
+        File temporaryArchive = File.createTempFile(ARCHIVE_FILE_PREFIX + bundle.getBundleId() + "-", ".tmp", cacheDirectory);
+        try {
+            ChecksumOutputStream checksumOutput = new ChecksumOutputStream(new FileOutputStream(temporaryArchive));
+            OutputStream output = new BufferedOutputStream(checksumOutput);
+            try {
+                archiveBuilder.writeArchive(bundle, output);
+            } finally {
+                output.close();
+            }
+            archiveChecksums.put(getRevisionKey(bundle), checksumOutput.getChecksums());
+            Files.move(temporaryArchive.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (temporaryArchive.exists() && !temporaryArchive.delete()) {
+                LOGGER.warn("Cannot delete temporary archive [" + temporaryArchive + "]");
+            }
+        }
+        LOGGER.debug("Stored archive of bundle [" + bundle.getSymbolicName() + "] in [" + archive + "]");
+    }
+
+    /**
+     * @return the original bundle file or the already stored archive of the current bundle revision, null in case
+     * the archive would have to be built first
+     */
+    public File getAvailableArchive(Bundle bundle) {
+        File originalArchive = findOriginalArchive(bundle);
+        if (originalArchive != null) {
+            return originalArchive;
+        }
+
+        File archive = cacheDirectory != null ? new File(cacheDirectory, getArchiveFileName(bundle)) : null;
+        return archive != null && archive.isFile() ? archive : null;
+    }
+
+    /**
+     * Removes all stored archives of the bundle, regardless of the revision.
+     */
+    public void invalidate(long bundleId) {
+        String revisionKeyPrefix = bundleId + "-";
+        removeRevisions(archiveChecksums, revisionKeyPrefix);
+        removeRevisions(originalArchives, revisionKeyPrefix);
+
+        if (cacheDirectory == null) {
+            return;
+        }
+
+        final String bundleArchivePrefix = ARCHIVE_FILE_PREFIX + revisionKeyPrefix;
+        File[] archives = cacheDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(bundleArchivePrefix);
+            }
+        });
+        if (archives != null) {
+            for (File archive : archives) {
+                deleteArchive(archive);
+            }
+        }
+    }
+
+    /**
+     * Removes the archives of uninstalled bundles and outdated bundle revisions.
+     */
+    public void purgeStaleArchives(BundleContext bundleContext) {
+        if (cacheDirectory == null) {
+            return;
+        }
+
+        File[] archives = cacheDirectory.listFiles();
+        if (archives == null) {
+            return;
+        }
+
+        for (File archive : archives) {
+            String name = archive.getName();
+            boolean current = false;
+            if (name.startsWith(ARCHIVE_FILE_PREFIX) && name.endsWith(ARCHIVE_FILE_SUFFIX)) {
+                String[] nameParts = name.substring(ARCHIVE_FILE_PREFIX.length(), name.length() - ARCHIVE_FILE_SUFFIX.length()).split("-");
+                try {
+                    Bundle bundle = nameParts.length == 2 ? bundleContext.getBundle(Long.parseLong(nameParts[0])) : null;
+                    current = bundle != null && getArchiveFileName(bundle).equals(name);
+                } catch (NumberFormatException ex) {
+                    LOGGER.debug("Unexpected file in archive cache [" + archive + "]");
+                }
+            }
+            if (!current) {
+                deleteArchive(archive);
+            }
+        }
+    }
+
+    /**
+     * Looks for the JAR file the bundle was installed from, first by its location and afterwards in the bundle cache
+     * of the framework (<code>bundle&lt;id&gt;/version&lt;x.y&gt;/bundle.jar</code>), taking the latest revision.
+     *
+     * @return the original bundle file, null in case passthrough is disabled or no readable file exists
+     */
+    File findOriginalArchive(Bundle bundle) {
+        if (!passthrough || bundle.getBundleId() == 0) {
+            return null;
+        }
+
+        String revisionKey = getRevisionKey(bundle);
+        File originalArchive = originalArchives.get(revisionKey);
+        if (originalArchive == null) {
+            originalArchive = getFileFromLocation(bundle.getLocation());
+            if (!isReadableArchive(originalArchive)) {
+                originalArchive = getFileFromFrameworkStorage(bundle.getBundleId());
+            }
+            if (!isReadableArchive(originalArchive)) {
+                originalArchive = NO_ORIGINAL_ARCHIVE;
+            }
+            LOGGER.debug("Original archive of bundle [" + bundle.getSymbolicName() + "] is [" + originalArchive + "]");
+            originalArchives.put(revisionKey, originalArchive);
+        }
+
+        return originalArchive != NO_ORIGINAL_ARCHIVE ? originalArchive : null;
+    }
+
+    private File getFileFromLocation(String location) {
+        if (location == null) {
+            return null;
+        }
+        if (location.startsWith(REFERENCE_LOCATION_PREFIX)) {
+            location = location.substring(REFERENCE_LOCATION_PREFIX.length());
+        }
+        if (!location.startsWith(FILE_LOCATION_PREFIX)) {
+            return null;
+        }
+        try {
+            return new File(new URI(location));
+        } catch (Exception ex) {
+            return new File(location.substring(FILE_LOCATION_PREFIX.length()));
+        }
+    }
+
+    private File getFileFromFrameworkStorage(long bundleId) {
+        if (frameworkStorageDirectory == null) {
+            return null;
+        }
+
+        File[] revisionDirectories = new File(frameworkStorageDirectory, FRAMEWORK_BUNDLE_DIRECTORY_PREFIX + bundleId).listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().startsWith(FRAMEWORK_REVISION_DIRECTORY_PREFIX);
+            }
+        });
+        if (revisionDirectories == null) {
+            return null;
+        }
+
+        File latestRevisionDirectory = null;
+        long[] latestRevision = null;
+        for (File revisionDirectory : revisionDirectories) {
+            long[] revision = parseRevision(revisionDirectory.getName().substring(FRAMEWORK_REVISION_DIRECTORY_PREFIX.length()));
+            if (revision != null && (latestRevision == null || revision[0] > latestRevision[0] || (revision[0] == latestRevision[0] && revision[1] > latestRevision[1]))) {
+                latestRevision = revision;
+                latestRevisionDirectory = revisionDirectory;
+            }
+        }
+
+        return latestRevisionDirectory != null ? new File(latestRevisionDirectory, FRAMEWORK_BUNDLE_FILE) : null;
+    }
+
+    private long[] parseRevision(String revision) {
+        int separator = revision.indexOf('.');
+        try {
+            if (separator == -1) {
+                return new long[]{Long.parseLong(revision), 0};
+            }
+            return new long[]{Long.parseLong(revision.substring(0, separator)), Long.parseLong(revision.substring(separator + 1))};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private boolean isReadableArchive(File file) {
+        if (file == null || !file.isFile() || !file.canRead()) {
+            return false;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new FileInputStream(file));
+            try {
+                // local file header signature of a zip file
+                return input.readInt() == 0x504b0304;
+            } finally {
+                input.close();
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private void removeRevisions(ConcurrentMap<String, ?> revisions, String revisionKeyPrefix) {
+        Iterator<String> revisionKeys = revisions.keySet().iterator();
+        while (revisionKeys.hasNext()) {
+            if (revisionKeys.next().startsWith(revisionKeyPrefix)) {
+                revisionKeys.remove();
+            }
+        }
+    }
+
+    /**
+     * @return hits and misses of rebuilt archives, original bundle files aren't counted
+     */
+    public CacheStatistics getArchiveStatistics() {
+        return archiveStatistics;
+    }
+
+    public CacheStatistics getChecksumStatistics() {
+        return checksumStatistics;
+    }
+
+    /**
+     * @return number of archive builds and checksum computations which were shared with a concurrent request
+     */
+    public long getCoalescedBuilds() {
+        return archiveBuilds.getCoalescedCalls() + checksumComputations.getCoalescedCalls();
+    }
+
+    private String getRevisionKey(Bundle bundle) {
+        return bundle.getBundleId() + "-" + bundle.getLastModified();
+    }
+
+    private String getArchiveFileName(Bundle bundle) {
+        return ARCHIVE_FILE_PREFIX + getRevisionKey(bundle) + ARCHIVE_FILE_SUFFIX;
+    }
+
+    private void deleteArchive(File archive) {
+        if (!archive.delete()) {
+            LOGGER.warn("Cannot delete archive [" + archive + "]");
+        }
+    }
+
+    /**
+     * Copies the file to the output stream. The file is read through its channel, but an output stream isn't a
+     * channel, so the content still passes through a buffer on the java heap.
+     */
+    public static void transferFile(File file, OutputStream output) throws IOException {
+        transferFile(file, 0, file.length(), output);
+    }
+
+    /**
+     * Copies <code>length</code> bytes of the file starting at <code>position</code> to the output stream.
+     */
+    public static void transferFile(File file, long position, long length, OutputStream output) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel fileChannel = input.getChannel();
+            WritableByteChannel outputChannel = Channels.newChannel(output);
+            long end = Math.min(position + length, fileChannel.size());
+            while (position < end) {
+                position += fileChannel.transferTo(position, end - position, outputChannel);
+            }
+        } finally {
+            input.close();
+        }
+    }
+}
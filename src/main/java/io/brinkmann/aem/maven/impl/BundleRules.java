@@ -0,0 +1,159 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.model.ArtifactMapping;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Mapping and ignore rules of one configuration, compiled once. The ignore patterns are combined into a single
+ * pattern. Mappings either name a bundle symbolic name exactly or contain <code>*</code> wildcards, e.g.
+ * <code>com.adobe.granite.*=com.adobe.granite</code>. An exact mapping wins over wildcard mappings, among those the
+ * one with the longest literal prefix wins. The decision for a symbolic name is memoized, a changed configuration
+ * creates new rules.
+ */
+public class BundleRules {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BundleRules.class);
+
+    private static final Decision NOT_MAPPED = new Decision(false, null);
+
+    private static final Decision IGNORED = new Decision(true, null);
+
+    private final Map<String, ArtifactMapping> exactMappings = new HashMap<>();
+
+    private final List<WildcardMapping> wildcardMappings = new ArrayList<>();
+
+    private final Pattern ignorePattern;
+
+    private final ConcurrentMap<String, Decision> decisions = new ConcurrentHashMap<>();
+
+    private static class Decision {
+
+        private final boolean ignored;
+
+        private final ArtifactMapping mapping;
+
+        private Decision(boolean ignored, ArtifactMapping mapping) {
+            this.ignored = ignored;
+            this.mapping = mapping;
+        }
+    }
+
+    private static class WildcardMapping {
+
+        private final Pattern pattern;
+
+        private final int literalPrefixLength;
+
+        private final ArtifactMapping mapping;
+
+        private WildcardMapping(ArtifactMapping mapping) {
+            String symbolicName = mapping.getBundleSymbolicName();
+            String[] literals = StringUtils.splitPreserveAllTokens(symbolicName, '*');
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < literals.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                if (!literals[i].isEmpty()) {
+                    regex.append(Pattern.quote(literals[i]));
+                }
+            }
+            this.pattern = Pattern.compile(regex.toString());
+            this.literalPrefixLength = symbolicName.indexOf('*');
+            this.mapping = mapping;
+        }
+    }
+
+    /**
+     * @param mappings       parsed <code>dependencyBundleMapping</code> entries, null entries are skipped
+     * @param ignorePatterns regular expressions of symbolic names to be ignored, invalid ones are logged and skipped
+     */
+    public BundleRules(List<ArtifactMapping> mappings, List<String> ignorePatterns) {
+        for (ArtifactMapping mapping : mappings) {
+            if (mapping == null) {
+                continue;
+            }
+            if (mapping.getBundleSymbolicName().indexOf('*') >= 0) {
+                wildcardMappings.add(new WildcardMapping(mapping));
+            } else {
+                exactMappings.put(mapping.getBundleSymbolicName(), mapping);
+            }
+        }
+        Collections.sort(wildcardMappings, new Comparator<WildcardMapping>() {
+            @Override
+            public int compare(WildcardMapping mapping, WildcardMapping otherMapping) {
+                return otherMapping.literalPrefixLength - mapping.literalPrefixLength;
+            }
+        });
+
+        StringBuilder combinedPattern = new StringBuilder();
+        for (String ignorePattern : ignorePatterns) {
+            if (StringUtils.isEmpty(ignorePattern)) {
+                continue;
+            }
+            try {
+                Pattern.compile(ignorePattern);
+            } catch (PatternSyntaxException ex) {
+                LOGGER.error("Cannot parse bundle to ignore because RegEx is not valid.", ex);
+                continue;
+            }
+            if (combinedPattern.length() > 0) {
+                combinedPattern.append('|');
+            }
+            combinedPattern.append("(?:").append(ignorePattern).append(')');
+        }
+        this.ignorePattern = combinedPattern.length() > 0 ? Pattern.compile(combinedPattern.toString()) : null;
+    }
+
+    public boolean isIgnored(String symbolicName) {
+        return getDecision(symbolicName).ignored;
+    }
+
+    /**
+     * @return the mapping of the bundle, null in case there is none
+     */
+    public ArtifactMapping getMapping(String symbolicName) {
+        return getDecision(symbolicName).mapping;
+    }
+
+    private Decision getDecision(String symbolicName) {
+        symbolicName = StringUtils.defaultString(symbolicName);
+        Decision decision = decisions.get(symbolicName);
+        if (decision == null) {
+            decision = decide(symbolicName);
+            decisions.put(symbolicName, decision);
+        }
+        return decision;
+    }
+
+    private Decision decide(String symbolicName) {
+        if (ignorePattern != null && ignorePattern.matcher(symbolicName).matches()) {
+            LOGGER.debug("Bundle [" + symbolicName + "] will be ignored because of matching ignore pattern.");
+            return IGNORED;
+        }
+
+        ArtifactMapping mapping = exactMappings.get(symbolicName);
+        if (mapping == null) {
+            for (WildcardMapping wildcardMapping : wildcardMappings) {
+                if (wildcardMapping.pattern.matcher(symbolicName).matches()) {
+                    mapping = wildcardMapping.mapping;
+                    break;
+                }
+            }
+        }
+        return mapping != null ? new Decision(false, mapping) : NOT_MAPPED;
+    }
+}
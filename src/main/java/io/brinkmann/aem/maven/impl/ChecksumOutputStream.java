@@ -0,0 +1,51 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.model.ArtifactChecksums;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Updates all checksums of {@link ArtifactChecksums} with the bytes passing through to the underlying stream.
+ */
+public class ChecksumOutputStream extends FilterOutputStream {
+
+    private final MessageDigest[] digests = ArtifactChecksums.createDigests();
+
+    private long size;
+
+    public ChecksumOutputStream(OutputStream output) {
+        super(output);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        for (MessageDigest digest : digests) {
+            digest.update((byte) b);
+        }
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (MessageDigest digest : digests) {
+            digest.update(b, off, len);
+        }
+        size += len;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Completes the digests, the stream must not be written afterwards.
+     */
+    public ArtifactChecksums getChecksums() {
+        return new ArtifactChecksums(digests);
+    }
+}
@@ -0,0 +1,118 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import io.brinkmann.aem.maven.model.MavenVersion;
+import org.apache.commons.lang3.StringUtils;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the dependencies which are also exported in a higher version. The dependencies are grouped by group id
+ * and artifact id in a single pass, each group keeps the dependencies with the highest version and collects the
+ * superseded ones, so the effort grows linearly with the number of dependencies.
+ */
+public final class DuplicateArtifactFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateArtifactFilter.class);
+
+    private DuplicateArtifactFilter() {
+    }
+
+    /**
+     * Looks for dependencies with the same artifact id and group id and removes the duplicates with the smaller version numbers.
+     * Dependencies with an equal version are all kept.
+     *
+     * @param dependenciesToBeFiltered goes through the list and applies the described filter
+     * @return number of removed dependencies
+     */
+    public static int filter(Set<ArtifactInformation> dependenciesToBeFiltered) {
+        Map<String, ArtifactGroup> artifactGroups = new HashMap<>(dependenciesToBeFiltered.size() * 2);
+        List<ArtifactGroup> groupsWithDuplicates = new ArrayList<>();
+
+        for (ArtifactInformation dependency : dependenciesToBeFiltered) {
+            if (StringUtils.isEmpty(dependency.getGroupId()) || StringUtils.isEmpty(dependency.getArtifactId())) {
+                continue;
+            }
+
+            String key = dependency.getGroupId() + ":" + dependency.getArtifactId();
+            ArtifactGroup artifactGroup = artifactGroups.get(key);
+            if (artifactGroup == null) {
+                artifactGroups.put(key, new ArtifactGroup(dependency));
+            } else if (artifactGroup.add(dependency)) {
+                groupsWithDuplicates.add(artifactGroup);
+            }
+        }
+
+        int removedDependencies = 0;
+        for (ArtifactGroup artifactGroup : groupsWithDuplicates) {
+            for (ArtifactInformation supersededDependency : artifactGroup.superseded) {
+                dependenciesToBeFiltered.remove(supersededDependency);
+                removedDependencies++;
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(artifactGroup.getReport());
+            }
+        }
+        return removedDependencies;
+    }
+
+    private static String getBundleName(ArtifactInformation dependency) {
+        Bundle bundle = dependency.getAssociatedBundle();
+        return bundle != null ? bundle.getSymbolicName() : "-";
+    }
+
+    private static class ArtifactGroup {
+
+        private final List<ArtifactInformation> highest = new ArrayList<>(1);
+
+        private final List<ArtifactInformation> superseded = new ArrayList<>(1);
+
+        private MavenVersion highestVersion;
+
+        private ArtifactGroup(ArtifactInformation dependency) {
+            highest.add(dependency);
+            highestVersion = dependency.getMavenVersion();
+        }
+
+        /**
+         * @return true in case this is the first duplicate of the group
+         */
+        private boolean add(ArtifactInformation dependency) {
+            boolean firstDuplicate = highest.size() == 1 && superseded.isEmpty();
+
+            int result = dependency.getMavenVersion().compareTo(highestVersion);
+            if (result > 0) {
+                superseded.addAll(highest);
+                highest.clear();
+                highest.add(dependency);
+                highestVersion = dependency.getMavenVersion();
+            } else if (result == 0) {
+                highest.add(dependency);
+            } else {
+                superseded.add(dependency);
+            }
+            return firstDuplicate;
+        }
+
+        private String getReport() {
+            ArtifactInformation kept = highest.get(0);
+            StringBuilder report = new StringBuilder();
+            report.append("Dependency [").append(kept.getGroupId()).append(':').append(kept.getArtifactId()).append("] exported in version [");
+            for (int i = 0; i < highest.size(); i++) {
+                report.append(i > 0 ? ", " : "").append(highest.get(i).getVersion()).append(" by ").append(getBundleName(highest.get(i)));
+            }
+            report.append("], removed the lower versions [");
+            for (int i = 0; i < superseded.size(); i++) {
+                report.append(i > 0 ? ", " : "").append(superseded.get(i).getVersion()).append(" by ").append(getBundleName(superseded.get(i)));
+            }
+            return report.append("]").toString();
+        }
+    }
+}
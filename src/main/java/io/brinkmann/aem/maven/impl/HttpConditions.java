@@ -0,0 +1,175 @@
+package io.brinkmann.aem.maven.impl;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Evaluates the conditional and range headers of a request against the entity tag and modification time of a
+ * repository file.
+ */
+public final class HttpConditions {
+
+    /**
+     * Returned by {@link #getRange} in case the requested range lies outside of the file.
+     */
+    public static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private HttpConditions() {
+    }
+
+    /**
+     * @param eTag         quoted strong entity tag of the file
+     * @param lastModified modification time in milliseconds, -1 in case it's unknown
+     * @return true in case the client already has the current version of the file and a 304 can be sent
+     */
+    public static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return matchesETag(ifNoneMatch, eTag);
+        }
+
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        return ifModifiedSince >= 0 && lastModified >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Parses a single byte range of the <code>Range</code> header. Multiple ranges aren't supported, the whole file
+     * is sent for them.
+     *
+     * @return first and last byte position of the range, null in case the whole file has to be sent or
+     * {@link #UNSATISFIABLE_RANGE}
+     */
+    public static long[] getRange(HttpServletRequest request, String eTag, long lastModified, long size) {
+        String range = request.getHeader("Range");
+        if (range == null || !range.startsWith(BYTES_UNIT) || range.indexOf(',') >= 0) {
+            return null;
+        }
+
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null) {
+            boolean unchanged;
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                unchanged = ifRange.trim().equals(eTag);
+            } else {
+                long ifRangeDate = getDateHeader(request, "If-Range");
+                unchanged = ifRangeDate >= 0 && lastModified / 1000 <= ifRangeDate / 1000;
+            }
+            if (!unchanged) {
+                return null;
+            }
+        }
+
+        String byteRange = range.substring(BYTES_UNIT.length()).trim();
+        int separator = byteRange.indexOf('-');
+        if (separator == -1) {
+            return null;
+        }
+
+        long first;
+        long last;
+        if (separator == 0) {
+            long suffixLength = parsePosition(byteRange.substring(1));
+            if (suffixLength < 0) {
+                return null;
+            }
+            if (suffixLength == 0) {
+                return UNSATISFIABLE_RANGE;
+            }
+            first = Math.max(0, size - suffixLength);
+            last = size - 1;
+        } else {
+            first = parsePosition(byteRange.substring(0, separator));
+            last = separator == byteRange.length() - 1 ? Long.MAX_VALUE : parsePosition(byteRange.substring(separator + 1));
+            if (first < 0 || last < first) {
+                // not a valid byte range, the header is ignored and the whole file is sent
+                return null;
+            }
+            last = Math.min(size - 1, last);
+        }
+
+        if (first >= size) {
+            return UNSATISFIABLE_RANGE;
+        }
+        return new long[]{first, last};
+    }
+
+    /**
+     * @return the byte position, -1 in case it isn't a non-negative decimal number
+     */
+    private static long parsePosition(String position) {
+        if (position.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < position.length(); i++) {
+            char digit = position.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(position);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return true in case the <code>Accept-Encoding</code> header accepts gzip, explicitly or by wildcard
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] codingParameters = coding.split(";");
+            String name = codingParameters[0].trim().toLowerCase();
+            boolean accepted = !isZeroQuality(codingParameters);
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                return accepted;
+            }
+            if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return wildcard != null && wildcard;
+    }
+
+    private static boolean isZeroQuality(String[] codingParameters) {
+        for (int i = 1; i < codingParameters.length; i++) {
+            String parameter = codingParameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim()) <= 0;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesETag(String eTagList, String eTag) {
+        for (String candidate : eTagList.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+}
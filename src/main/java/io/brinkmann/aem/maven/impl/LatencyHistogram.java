@@ -0,0 +1,79 @@
+package io.brinkmann.aem.maven.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in milliseconds with fixed bucket bounds. Percentiles are estimated by the upper
+ * bound of the bucket they fall into.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Inclusive upper bounds of the buckets, a last bucket takes all larger latencies.
+     */
+    static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+
+        long currentMax = max.get();
+        while (millis > currentMax && !max.compareAndSet(currentMax, millis)) {
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public int getBucketCount() {
+        return buckets.length();
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return upper bound of the bucket containing the percentile, the maximum for the last bucket
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS[bucket], max.get());
+            }
+        }
+        return max.get();
+    }
+}
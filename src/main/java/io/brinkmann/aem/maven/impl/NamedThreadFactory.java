@@ -0,0 +1,59 @@
+package io.brinkmann.aem.maven.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named after the task they're used for, so they can be told apart in thread dumps.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NamedThreadFactory.class);
+
+    private final String name;
+
+    private final int priority;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    public NamedThreadFactory(String name) {
+        this(name, Thread.NORM_PRIORITY);
+    }
+
+    public NamedThreadFactory(String name, int priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        return thread;
+    }
+
+    /**
+     * Creates virtual threads on JVMs which support them (Java 21 and newer), platform threads otherwise.
+     * The JVM is detected by reflection since the bundle is compiled for older Java versions. Virtual threads
+     * ignore the priority.
+     */
+    public static ThreadFactory preferVirtualThreads(String name, int priority) {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException ex) {
+            return new NamedThreadFactory(name, priority);
+        } catch (Exception ex) {
+            LOGGER.debug("Virtual threads not available, using platform threads for [" + name + "]", ex);
+            return new NamedThreadFactory(name, priority);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.POMGenerator;
+import io.brinkmann.aem.maven.model.ArtifactChecksums;
+import io.brinkmann.aem.maven.model.ArtifactComment;
+import io.brinkmann.aem.maven.model.ArtifactIndex;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import org.apache.commons.lang3.StringUtils;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the artifacts of the index in the format of the Maven indexer, so IDEs can search artifacts and class
+ * names by downloading a single file instead of crawling the repository. The document of an artifact is encoded once
+ * and kept as long as its bundle isn't modified. Each update writes an incremental chunk with the changed and
+ * removed artifacts, the full index is written again from the encoded documents.
+ */
+public class NexusIndexPublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NexusIndexPublisher.class);
+
+    public static final String INDEX_FILE_NAME = "nexus-maven-repository-index.gz";
+
+    public static final String PROPERTIES_FILE_NAME = "nexus-maven-repository-index.properties";
+
+    private static final String CHUNK_FILE_PREFIX = "nexus-maven-repository-index.";
+
+    private static final String CHUNK_FILE_SUFFIX = ".gz";
+
+    private static final String TIMESTAMP_FORMAT = "yyyyMMddHHmmss.SSS Z";
+
+    private static final String NOT_AVAILABLE = "NA";
+
+    private static final String EXTENSION = "jar";
+
+    private static final int STORED = NexusIndexWriter.FLAG_STORED;
+
+    private static final int INDEXED_STORED = NexusIndexWriter.FLAG_INDEXED | NexusIndexWriter.FLAG_STORED;
+
+    private static final int TOKENIZED_STORED = NexusIndexWriter.FLAG_INDEXED | NexusIndexWriter.FLAG_TOKENIZED | NexusIndexWriter.FLAG_STORED;
+
+    private final BundleArchiveCache bundleArchiveCache;
+
+    private final File indexDirectory;
+
+    private final String repositoryId;
+
+    private final int maxIncrementalChunks;
+
+    private final ExecutorService executor;
+
+    private final AtomicReference<ArtifactIndex> pendingIndex = new AtomicReference<>();
+
+    private final String chainId = String.valueOf(System.currentTimeMillis());
+
+    /**
+     * Documents of the published index by their <code>u</code> field, only accessed by the update thread.
+     */
+    private Map<String, IndexedArtifact> indexedArtifacts;
+
+    /**
+     * Numbers of the published chunks, newest first, only accessed by the update thread.
+     */
+    private final List<Integer> chunks = new ArrayList<>();
+
+    private volatile long publishedGeneration = -1;
+
+    private static class IndexedArtifact {
+
+        private final long lastModified;
+
+        private final boolean checksumsKnown;
+
+        private final byte[] document;
+
+        private IndexedArtifact(long lastModified, boolean checksumsKnown, byte[] document) {
+            this.lastModified = lastModified;
+            this.checksumsKnown = checksumsKnown;
+            this.document = document;
+        }
+    }
+
+    /**
+     * @param indexDirectory       directory holding the published files, its content is replaced
+     * @param repositoryId         id of the repository announced in the index
+     * @param maxIncrementalChunks number of incremental chunks kept, older chunks are deleted
+     */
+    public NexusIndexPublisher(BundleArchiveCache bundleArchiveCache, File indexDirectory, String repositoryId, int maxIncrementalChunks) {
+        this.bundleArchiveCache = bundleArchiveCache;
+        this.indexDirectory = indexDirectory;
+        this.repositoryId = repositoryId;
+        this.maxIncrementalChunks = Math.max(0, maxIncrementalChunks);
+        this.executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("aem-maven-repository-index", Thread.MIN_PRIORITY));
+
+        if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+            LOGGER.warn("Cannot create index directory [" + indexDirectory + "]");
+        }
+        // chunks of a previous run don't belong to the chain of this one
+        File[] staleFiles = indexDirectory.listFiles();
+        if (staleFiles != null) {
+            for (File staleFile : staleFiles) {
+                deleteFile(staleFile);
+            }
+        }
+    }
+
+    /**
+     * Loads the current index on the update thread and publishes it.
+     */
+    public void publish(final POMGenerator pomGenerator, final BundleContext bundleContext) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        publish(pomGenerator.getArtifactIndex(bundleContext));
+                    } catch (Exception ex) {
+                        LOGGER.error("Cannot load artifact index for the Nexus index.", ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("Nexus index not published because the executor is shut down.");
+        }
+    }
+
+    /**
+     * Publishes the index on the update thread, indexes handed over while an update runs are coalesced into the
+     * latest one.
+     */
+    public void publish(ArtifactIndex artifactIndex) {
+        if (pendingIndex.getAndSet(artifactIndex) != null) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ArtifactIndex index = pendingIndex.getAndSet(null);
+                    if (index != null && index.getGeneration() != publishedGeneration) {
+                        try {
+                            update(index);
+                        } catch (Exception ex) {
+                            LOGGER.error("Cannot publish Nexus index of generation [" + index.getGeneration() + "]", ex);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("Nexus index not published because the executor is shut down.");
+        }
+    }
+
+    private void update(ArtifactIndex artifactIndex) throws IOException {
+        long startTime = System.currentTimeMillis();
+        Map<String, IndexedArtifact> updatedArtifacts = new TreeMap<>();
+        List<byte[]> changedDocuments = new ArrayList<>();
+        Map<Long, String> classNamesByBundle = new HashMap<>();
+
+        for (ArtifactInformation artifact : artifactIndex.getDependencies()) {
+            Bundle bundle = artifact.getAssociatedBundle();
+            if (artifact instanceof ArtifactComment || bundle == null || StringUtils.isEmpty(artifact.getGroupId()) || StringUtils.isEmpty(artifact.getVersion())) {
+                continue;
+            }
+            String uinfo = getUinfo(artifact);
+            if (updatedArtifacts.containsKey(uinfo)) {
+                continue;
+            }
+
+            ArtifactChecksums checksums = bundleArchiveCache.getAvailableChecksums(bundle);
+            IndexedArtifact indexedArtifact = indexedArtifacts != null ? indexedArtifacts.get(uinfo) : null;
+            if (indexedArtifact == null || indexedArtifact.lastModified != bundle.getLastModified()
+                    || !indexedArtifact.checksumsKnown && checksums != null) {
+                indexedArtifact = new IndexedArtifact(bundle.getLastModified(), checksums != null,
+                        createDocument(artifact, uinfo, checksums, classNamesByBundle).encode());
+                changedDocuments.add(indexedArtifact.document);
+            }
+            updatedArtifacts.put(uinfo, indexedArtifact);
+        }
+
+        List<byte[]> deletedDocuments = new ArrayList<>();
+        if (indexedArtifacts != null) {
+            for (String uinfo : indexedArtifacts.keySet()) {
+                if (!updatedArtifacts.containsKey(uinfo)) {
+                    deletedDocuments.add(new NexusIndexWriter.Document()
+                            .add("del", uinfo, INDEXED_STORED)
+                            .add("m", String.valueOf(startTime), STORED)
+                            .encode());
+                }
+            }
+        }
+
+        if (indexedArtifacts != null && changedDocuments.isEmpty() && deletedDocuments.isEmpty()) {
+            publishedGeneration = artifactIndex.getGeneration();
+            return;
+        }
+
+        if (indexedArtifacts != null && maxIncrementalChunks > 0) {
+            int chunk = chunks.isEmpty() ? 1 : chunks.get(0) + 1;
+            List<byte[]> chunkDocuments = new ArrayList<>(changedDocuments);
+            chunkDocuments.addAll(deletedDocuments);
+            writeIndexFile(CHUNK_FILE_PREFIX + chunk + CHUNK_FILE_SUFFIX, startTime, chunkDocuments, false);
+            chunks.add(0, chunk);
+            while (chunks.size() > maxIncrementalChunks) {
+                deleteFile(new File(indexDirectory, CHUNK_FILE_PREFIX + chunks.remove(chunks.size() - 1) + CHUNK_FILE_SUFFIX));
+            }
+        }
+
+        List<byte[]> documents = new ArrayList<>(updatedArtifacts.size());
+        TreeSet<String> groups = new TreeSet<>();
+        TreeSet<String> rootGroups = new TreeSet<>();
+        for (Map.Entry<String, IndexedArtifact> indexedArtifact : updatedArtifacts.entrySet()) {
+            documents.add(indexedArtifact.getValue().document);
+            String groupId = StringUtils.substringBefore(indexedArtifact.getKey(), "|");
+            groups.add(groupId);
+            rootGroups.add(StringUtils.substringBefore(groupId, "."));
+        }
+        documents.add(new NexusIndexWriter.Document()
+                .add("allGroups", "allGroups", INDEXED_STORED)
+                .add("allGroupsList", StringUtils.join(groups, '|'), STORED)
+                .encode());
+        documents.add(new NexusIndexWriter.Document()
+                .add("rootGroups", "rootGroups", INDEXED_STORED)
+                .add("rootGroupsList", StringUtils.join(rootGroups, '|'), STORED)
+                .encode());
+        writeIndexFile(INDEX_FILE_NAME, startTime, documents, true);
+        writeProperties(startTime);
+
+        indexedArtifacts = updatedArtifacts;
+        publishedGeneration = artifactIndex.getGeneration();
+        LOGGER.info("Published Nexus index of generation [" + artifactIndex.getGeneration() + "] with [" + updatedArtifacts.size()
+                + "] artifacts, [" + changedDocuments.size() + "] changed and [" + deletedDocuments.size() + "] removed, in ["
+                + (System.currentTimeMillis() - startTime) + "ms]");
+    }
+
+    private static String getUinfo(ArtifactInformation artifact) {
+        return artifact.getGroupId() + "|" + artifact.getArtifactId() + "|" + artifact.getVersion() + "|" + NOT_AVAILABLE + "|" + EXTENSION;
+    }
+
+    private NexusIndexWriter.Document createDocument(ArtifactInformation artifact, String uinfo, ArtifactChecksums checksums, Map<Long, String> classNamesByBundle) {
+        Bundle bundle = artifact.getAssociatedBundle();
+        File archive = bundleArchiveCache.getAvailableArchive(bundle);
+        long size = archive != null ? archive.length() : -1;
+
+        String classNames = classNamesByBundle.get(bundle.getBundleId());
+        if (classNames == null) {
+            classNames = getClassNames(bundle);
+            classNamesByBundle.put(bundle.getBundleId(), classNames);
+        }
+
+        return new NexusIndexWriter.Document()
+                .add("u", uinfo, INDEXED_STORED)
+                .add("m", String.valueOf(bundle.getLastModified()), STORED)
+                .add("i", EXTENSION + "|" + bundle.getLastModified() + "|" + size + "|0|0|0|" + EXTENSION, STORED)
+                .add("n", bundle.getHeaders().get("Bundle-Name"), TOKENIZED_STORED)
+                .add("d", bundle.getHeaders().get("Bundle-Description"), TOKENIZED_STORED)
+                .add("1", checksums != null ? checksums.getSha1() : null, INDEXED_STORED)
+                .add("c", classNames.isEmpty() ? null : classNames, TOKENIZED_STORED);
+    }
+
+    /**
+     * @return the top level classes of the bundle as slash separated names, one per line, inner classes are skipped
+     */
+    private static String getClassNames(Bundle bundle) {
+        List<String> classNames = new ArrayList<>();
+        try {
+            Enumeration<URL> entries = bundle.findEntries("/", "*.class", true);
+            while (entries != null && entries.hasMoreElements()) {
+                String path = entries.nextElement().getPath();
+                if (path.endsWith(".class") && path.indexOf('$') == -1 && !path.startsWith("/META-INF/")) {
+                    classNames.add((path.startsWith("/") ? "" : "/") + path.substring(0, path.length() - ".class".length()));
+                }
+            }
+        } catch (IllegalStateException ex) {
+            LOGGER.debug("Bundle [" + bundle.getSymbolicName() + "] has been uninstalled, no class names indexed.");
+        }
+        Collections.sort(classNames);
+        return StringUtils.join(classNames, '\n');
+    }
+
+    private void writeIndexFile(String fileName, long timestamp, List<byte[]> documents, boolean descriptor) throws IOException {
+        File temporaryFile = File.createTempFile(fileName, ".tmp", indexDirectory);
+        try {
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(temporaryFile))) {
+                NexusIndexWriter indexWriter = new NexusIndexWriter(output, timestamp);
+                if (descriptor) {
+                    indexWriter.writeDocument(new NexusIndexWriter.Document()
+                            .add("DESCRIPTOR", "NexusIndex", INDEXED_STORED)
+                            .add("IDXINFO", "1.0|" + repositoryId, STORED));
+                }
+                for (byte[] document : documents) {
+                    indexWriter.writeDocument(document);
+                }
+                indexWriter.finish();
+            }
+            Files.move(temporaryFile.toPath(), new File(indexDirectory, fileName).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (temporaryFile.exists()) {
+                deleteFile(temporaryFile);
+            }
+        }
+    }
+
+    private void writeProperties(long timestamp) throws IOException {
+        SimpleDateFormat timestampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
+        timestampFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        Properties properties = new Properties();
+        properties.setProperty("nexus.index.id", repositoryId);
+        properties.setProperty("nexus.index.chain-id", chainId);
+        properties.setProperty("nexus.index.timestamp", timestampFormat.format(new Date(timestamp)));
+        properties.setProperty("nexus.index.time", timestampFormat.format(new Date(timestamp)));
+        if (!chunks.isEmpty()) {
+            properties.setProperty("nexus.index.last-incremental", String.valueOf(chunks.get(0)));
+            for (int i = 0; i < chunks.size(); i++) {
+                properties.setProperty("nexus.index.incremental-" + i, String.valueOf(chunks.get(i)));
+            }
+        }
+
+        File temporaryFile = File.createTempFile(PROPERTIES_FILE_NAME, ".tmp", indexDirectory);
+        try {
+            try (OutputStream output = new FileOutputStream(temporaryFile)) {
+                properties.store(output, null);
+            }
+            Files.move(temporaryFile.toPath(), new File(indexDirectory, PROPERTIES_FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (temporaryFile.exists()) {
+                deleteFile(temporaryFile);
+            }
+        }
+    }
+
+    /**
+     * @return the published file, null in case the name doesn't belong to the index or it hasn't been published yet
+     */
+    public File getFile(String fileName) {
+        if (!fileName.equals(INDEX_FILE_NAME) && !fileName.equals(PROPERTIES_FILE_NAME)
+                && !(fileName.startsWith(CHUNK_FILE_PREFIX) && fileName.endsWith(CHUNK_FILE_SUFFIX)
+                && StringUtils.isNumeric(fileName.substring(CHUNK_FILE_PREFIX.length(), fileName.length() - CHUNK_FILE_SUFFIX.length())))) {
+            return null;
+        }
+        File file = new File(indexDirectory, fileName);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * @return generation of the artifact index last published, -1 before the first update
+     */
+    public long getPublishedGeneration() {
+        return publishedGeneration;
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Cannot delete index file [" + file + "]");
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,134 @@
+package io.brinkmann.aem.maven.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the transfer format of the Maven indexer, the gzipped stream of documents published as
+ * <code>nexus-maven-repository-index.gz</code> and as its incremental chunks. Documents are encoded separately, so
+ * unchanged ones can be written again without encoding them anew.
+ */
+public class NexusIndexWriter {
+
+    private static final int VERSION = 1;
+
+    public static final int FLAG_INDEXED = 1;
+
+    public static final int FLAG_TOKENIZED = 2;
+
+    public static final int FLAG_STORED = 4;
+
+    private final DataOutputStream output;
+
+    private final GZIPOutputStream gzipOutput;
+
+    /**
+     * Writes the header of the index.
+     *
+     * @param timestamp time of the index in milliseconds, -1 in case it's unknown
+     */
+    public NexusIndexWriter(OutputStream output, long timestamp) throws IOException {
+        this.gzipOutput = new GZIPOutputStream(output, 64 * 1024);
+        this.output = new DataOutputStream(gzipOutput);
+        this.output.writeByte(VERSION);
+        this.output.writeLong(timestamp);
+    }
+
+    /**
+     * Fields of a single document.
+     */
+    public static class Document {
+
+        private final List<String> names = new ArrayList<>();
+
+        private final List<String> values = new ArrayList<>();
+
+        private final List<Integer> flags = new ArrayList<>();
+
+        public Document add(String name, String value, int fieldFlags) {
+            if (value != null) {
+                names.add(name);
+                values.add(value);
+                flags.add(fieldFlags);
+            }
+            return this;
+        }
+
+        public byte[] encode() {
+            ByteArrayOutputStream encodedDocument = new ByteArrayOutputStream(256);
+            DataOutputStream documentOutput = new DataOutputStream(encodedDocument);
+            try {
+                documentOutput.writeInt(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    documentOutput.writeByte(flags.get(i));
+                    documentOutput.writeUTF(names.get(i));
+                    writeString(documentOutput, values.get(i));
+                }
+                documentOutput.close();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return encodedDocument.toByteArray();
+        }
+    }
+
+    public void writeDocument(Document document) throws IOException {
+        writeDocument(document.encode());
+    }
+
+    /**
+     * @param encodedDocument document as returned by {@link Document#encode()}
+     */
+    public void writeDocument(byte[] encodedDocument) throws IOException {
+        output.write(encodedDocument);
+    }
+
+    /**
+     * Completes the gzip stream, the underlying stream isn't closed.
+     */
+    public void finish() throws IOException {
+        output.flush();
+        gzipOutput.finish();
+    }
+
+    /**
+     * Modified UTF-8 like {@link DataOutputStream#writeUTF(String)}, but with an int length since field values,
+     * e.g. the class names of a bundle, may exceed 64KB.
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if (c > 0x07FF) {
+                length += 3;
+            } else {
+                length += 2;
+            }
+        }
+
+        byte[] bytes = new byte[length];
+        int position = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                bytes[position++] = (byte) c;
+            } else if (c > 0x07FF) {
+                bytes[position++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                bytes[position++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        output.writeInt(length);
+        output.write(bytes);
+    }
+}
@@ -1,23 +1,37 @@
 package io.brinkmann.aem.maven.impl;
 
+import io.brinkmann.aem.maven.ArtifactIndexListener;
+import io.brinkmann.aem.maven.CacheStatistics;
 import io.brinkmann.aem.maven.POMGenerator;
+import io.brinkmann.aem.maven.model.ArtifactChecksums;
+import io.brinkmann.aem.maven.model.ArtifactComment;
+import io.brinkmann.aem.maven.model.ArtifactIndex;
 import io.brinkmann.aem.maven.model.ArtifactInformation;
 import io.brinkmann.aem.maven.model.ArtifactMapping;
-import org.apache.commons.io.IOUtils;
+import io.brinkmann.aem.maven.model.RenderedDocument;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.*;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.*;
 import java.net.URL;
-import java.text.MessageFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,9 +45,7 @@ public class POMGeneratorImpl implements POMGenerator {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(POMGeneratorImpl.class);
 
-    private Map<String, ArtifactMapping> artifactMappings = new HashMap<String, ArtifactMapping>();
-
-    private Set<Pattern> bundlesToBeIgnored = new HashSet<Pattern>();
+    private BundleRules bundleRules;
 
     private String dependencyOutputPrefix = "";
 
@@ -45,7 +57,86 @@ public class POMGeneratorImpl implements POMGenerator {
 
     private boolean scopeProvided = true;
 
-    @Property(value = {""}, unbounded = PropertyUnbounded.ARRAY, label = "Dependency Bundle Mapping", description = "Optional mapping from bundles to their maven dependency. Syntax: '<bundleSymbolicName>=<groupId>:<artifactId>:<version>' <artifactId> and <version> are optional and will be applied from the bundle symbolic name or bundle version in case they're not specified here.")
+    private BundleContext bundleContext;
+
+    /**
+     * Artifacts resolved per bundle id. Only the bundles reported by the {@link BundleListener} are rescanned,
+     * all others keep their last scan result. Sorted by bundle id, so an artifact provided by several bundles is
+     * taken from the same bundle no matter in which order the bundles were scanned.
+     */
+    private final Map<Long, List<ArtifactInformation>> bundleArtifacts = new TreeMap<Long, List<ArtifactInformation>>();
+
+    /**
+     * Modification time of the bundles when they were scanned, by bundle id.
+     */
+    private final Map<Long, Long> bundleRevisions = new HashMap<Long, Long>();
+
+    private final Set<Long> changedBundleIds = new HashSet<Long>();
+
+    private static final String ARTIFACT_INDEX_FILE = "artifact-index.bin";
+
+    private ArtifactIndexStore artifactIndexStore;
+
+    private final Object indexLock = new Object();
+
+    /**
+     * Guards the changed bundles and the pending update, so the bundle events aren't blocked by a running scan.
+     */
+    private final Object pendingUpdateLock = new Object();
+
+    /**
+     * Immutable snapshot handed out to readers, replaced as a whole after each index update.
+     */
+    private volatile ArtifactIndex artifactIndex;
+
+    private long indexGeneration;
+
+    private final List<ArtifactIndexListener> artifactIndexListeners = new CopyOnWriteArrayList<>();
+
+    private static final int MAX_RENDERED_DOCUMENTS = 32;
+
+    private static final int RENDER_BUFFER_SIZE = 64 * 1024;
+
+    private PomTemplate pomTemplate;
+
+    /**
+     * Rendered POM variants of the current index generation, keyed by coordinates and output prefix.
+     */
+    private final RenderedDocumentCache renderedDocuments = new RenderedDocumentCache(MAX_RENDERED_DOCUMENTS);
+
+    private ScheduledExecutorService indexUpdateExecutor;
+
+    /**
+     * Scans bundles in parallel, null in case they're scanned by the thread updating the index.
+     */
+    private ExecutorService scanExecutor;
+
+    private ScheduledFuture<?> pendingIndexUpdate;
+
+    private long firstPendingBundleEvent;
+
+    private long indexUpdateDelay;
+
+    private long indexUpdateMaxDelay;
+
+    private final BundleListener bundleListener = new BundleListener() {
+        @Override
+        public void bundleChanged(BundleEvent event) {
+            switch (event.getType()) {
+                case BundleEvent.INSTALLED:
+                case BundleEvent.UPDATED:
+                case BundleEvent.UNINSTALLED:
+                case BundleEvent.RESOLVED:
+                case BundleEvent.UNRESOLVED:
+                    scheduleIndexUpdate(event.getBundle().getBundleId());
+                    break;
+                default:
+                    // starting and stopping doesn't change the content of a bundle
+            }
+        }
+    };
+
+    @Property(value = {""}, unbounded = PropertyUnbounded.ARRAY, label = "Dependency Bundle Mapping", description = "Optional mapping from bundles to their maven dependency. Syntax: '<bundleSymbolicName>=<groupId>:<artifactId>:<version>' <artifactId> and <version> are optional and will be applied from the bundle symbolic name or bundle version in case they're not specified here. The symbolic name may contain * wildcards, e.g. 'com.adobe.granite.*=com.adobe.granite', an exact symbolic name wins over wildcards.")
     private static final String PROP_DEPENDENCY_MAPPING = "dependencyBundleMapping";
 
     @Property(value = {""}, unbounded = PropertyUnbounded.ARRAY, label = "List Bundles to be Ignored", description = "RegEx pattern of bundles which shall be ignored from export.")
@@ -67,160 +158,420 @@ public class POMGeneratorImpl implements POMGenerator {
     private static final String PROP_DEPENDENCY_SCOPE_PROVIDED = "depencyScopeProvided";
     private static final boolean PROP_DEPENDENCY_SCOPE_PROVIDED_DEFAULT_VALUE = true;
 
+    @Property(longValue = 2000, label = "Index Update Delay", description = "Milliseconds to wait for further bundle events before the changed bundles are rescanned. Avoids rescanning during package deployments which install many bundles in a row.")
+    private static final String PROP_INDEX_UPDATE_DELAY = "indexUpdateDelay";
+    private static final long PROP_INDEX_UPDATE_DELAY_DEFAULT_VALUE = 2000;
+
+    @Property(longValue = 30000, label = "Index Update Max Delay", description = "Maximum milliseconds a bundle change waits for the index update, even when bundle events keep coming in.")
+    private static final String PROP_INDEX_UPDATE_MAX_DELAY = "indexUpdateMaxDelay";
+    private static final long PROP_INDEX_UPDATE_MAX_DELAY_DEFAULT_VALUE = 30000;
+
+    @Property(intValue = 4, label = "Bundle Scan Threads", description = "Number of threads scanning bundles for their artifacts, 1 scans them one after another.")
+    private static final String PROP_SCAN_THREADS = "scanThreads";
+    private static final int PROP_SCAN_THREADS_DEFAULT_VALUE = 4;
+
     @Activate
     protected void activateComponent(ComponentContext componentContext) {
-        artifactMappings.clear();
-        bundlesToBeIgnored.clear();
-
         final Dictionary<?, ?> properties = componentContext.getProperties();
-        final String[] dependencyMappingList = (String[]) properties.get(PROP_DEPENDENCY_MAPPING);
+        final String[] dependencyMappingList = PropertiesUtil.toStringArray(properties.get(PROP_DEPENDENCY_MAPPING), new String[0]);
+        List<ArtifactMapping> artifactMappings = new ArrayList<>();
         for (String dependencyMapping : dependencyMappingList) {
-            ArtifactMapping artifactMapping = ArtifactMapping.parseMappingFromOsgiConfig(dependencyMapping);
-            artifactMappings.put(artifactMapping.getBundleSymbolicName(), artifactMapping);
-        }
-        final String[] listIgnoreBundle = (String[]) properties.get(PROP_IGNORE_BUNDLE);
-        for (String ignoreBundle : listIgnoreBundle) {
-            try {
-                bundlesToBeIgnored.add(Pattern.compile(ignoreBundle));
-            } catch (Exception ex) {
-                LOGGER.error("Cannot parse bundle to ignore because RegEx is not valid.", ex);
-            }
+            artifactMappings.add(ArtifactMapping.parseMappingFromOsgiConfig(dependencyMapping));
         }
+        final String[] listIgnoreBundle = PropertiesUtil.toStringArray(properties.get(PROP_IGNORE_BUNDLE), new String[0]);
+        bundleRules = new BundleRules(artifactMappings, Arrays.asList(listIgnoreBundle));
         dependencyOutputPrefix = (String) properties.get(PROP_DEPENDENCY_OUTPUT_PREFIX);
         defaultGroupId = (String) properties.get(PROP_DEFAULT_GROUP_ID);
         defaultArtifactId = (String) properties.get(PROP_DEFAULT_ARTIFACT_ID);
         defaultVersion = (String) properties.get(PROP_DEFAULT_VERSION);
         scopeProvided = PropertiesUtil.toBoolean(properties.get(PROP_DEPENDENCY_SCOPE_PROVIDED), PROP_DEPENDENCY_SCOPE_PROVIDED_DEFAULT_VALUE);
-    }
+        renderedDocuments.clear();
+        try {
+            pomTemplate = PomTemplate.load(getClass().getResource("basePom.xml"));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot load POM template.", ex);
+        }
+        indexUpdateDelay = PropertiesUtil.toLong(properties.get(PROP_INDEX_UPDATE_DELAY), PROP_INDEX_UPDATE_DELAY_DEFAULT_VALUE);
+        indexUpdateMaxDelay = PropertiesUtil.toLong(properties.get(PROP_INDEX_UPDATE_MAX_DELAY), PROP_INDEX_UPDATE_MAX_DELAY_DEFAULT_VALUE);
 
-    public String generatePOM(BundleContext bundleContext, String groupId, String artifactId, String version) throws IOException {
+        synchronized (indexLock) {
+            bundleArtifacts.clear();
+            bundleRevisions.clear();
+            artifactIndex = null;
+        }
+        synchronized (pendingUpdateLock) {
+            changedBundleIds.clear();
+        }
 
-        List<String> messageFormatValues = new ArrayList<String>();
+        bundleContext = componentContext.getBundleContext();
+        artifactIndexStore = new ArtifactIndexStore(bundleContext.getDataFile(ARTIFACT_INDEX_FILE), getConfigurationKey(dependencyMappingList, listIgnoreBundle));
+        indexUpdateExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("aem-maven-repository-index"));
+        int scanThreads = PropertiesUtil.toInteger(properties.get(PROP_SCAN_THREADS), PROP_SCAN_THREADS_DEFAULT_VALUE);
+        scanExecutor = scanThreads > 1 ? Executors.newFixedThreadPool(scanThreads, new NamedThreadFactory("aem-maven-repository-scan")) : null;
+        bundleContext.addBundleListener(bundleListener);
+        indexUpdateExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getGeneratedDependencyList(bundleContext);
+                } catch (Exception ex) {
+                    LOGGER.error("Initial scan of the bundles failed.", ex);
+                }
+            }
+        });
+    }
 
-        groupId = StringUtils.isNotEmpty(groupId) ? groupId : defaultGroupId;
-        messageFormatValues.add(groupId);
+    @Deactivate
+    protected void deactivateComponent(ComponentContext componentContext) {
+        componentContext.getBundleContext().removeBundleListener(bundleListener);
+        indexUpdateExecutor.shutdownNow();
+        if (scanExecutor != null) {
+            scanExecutor.shutdownNow();
+        }
+        synchronized (pendingUpdateLock) {
+            pendingIndexUpdate = null;
+            firstPendingBundleEvent = 0;
+        }
+    }
 
-        artifactId = StringUtils.isNoneEmpty(artifactId) ? artifactId : defaultArtifactId;
-        messageFormatValues.add(artifactId);
+    public String generatePOM(BundleContext bundleContext, String groupId, String artifactId, String version) throws IOException {
+        return renderPOM(bundleContext, groupId, artifactId, version).toString();
+    }
 
-        version = StringUtils.isNoneEmpty(version) ? version : defaultVersion;
-        messageFormatValues.add(version);
+    public String generateDependenciesPomFragment(BundleContext bundleContext, String dependencyOutputPrefix) throws IOException {
+        return renderDependenciesPomFragment(bundleContext, dependencyOutputPrefix).toString();
+    }
 
-        messageFormatValues.add(generateDependenciesPomFragment(bundleContext, null));
+    public RenderedDocument renderPOM(BundleContext bundleContext, String groupId, String artifactId, String version) throws IOException {
+        final String pomGroupId = StringUtils.isNotEmpty(groupId) ? groupId : defaultGroupId;
+        final String pomArtifactId = StringUtils.isNoneEmpty(artifactId) ? artifactId : defaultArtifactId;
+        final String pomVersion = StringUtils.isNoneEmpty(version) ? version : defaultVersion;
+
+        final ArtifactIndex index = getArtifactIndex(bundleContext);
+        String variantKey = "pom:" + pomGroupId + ":" + pomArtifactId + ":" + pomVersion;
+        RenderedDocument renderedPom = renderedDocuments.get(index.getGeneration(), variantKey);
+        if (renderedPom == null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream(RENDER_BUFFER_SIZE);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(content, StandardCharsets.UTF_8));
+            pomTemplate.render(writer, new PomTemplate.PlaceholderWriter() {
+                @Override
+                public void write(int placeholder, Writer writer) throws IOException {
+                    switch (placeholder) {
+                        case 0:
+                            writer.write(pomGroupId);
+                            break;
+                        case 1:
+                            writer.write(pomArtifactId);
+                            break;
+                        case 2:
+                            writer.write(pomVersion);
+                            break;
+                        case 3:
+                            writeDependencies(writer, index, dependencyOutputPrefix);
+                            break;
+                        default:
+                            LOGGER.warn("Unknown placeholder [" + placeholder + "] in POM template.");
+                    }
+                }
+            });
+            writer.close();
+            renderedPom = new RenderedDocument(content.toByteArray());
+            renderedDocuments.put(index.getGeneration(), variantKey, renderedPom);
+        }
+        return renderedPom;
+    }
 
-        InputStream basePomInputStream = this.getClass().getResource("basePom.xml").openStream();
-        String basePomTemplate = IOUtils.toString(basePomInputStream);
-        String basePomCompleted = MessageFormat.format(basePomTemplate, messageFormatValues.toArray());
+    public RenderedDocument renderDependenciesPomFragment(BundleContext bundleContext, String dependencyOutputPrefix) throws IOException {
+        dependencyOutputPrefix = dependencyOutputPrefix != null ? dependencyOutputPrefix : this.dependencyOutputPrefix;
 
-        return basePomCompleted;
+        ArtifactIndex index = getArtifactIndex(bundleContext);
+        String variantKey = "dependencies:" + dependencyOutputPrefix;
+        RenderedDocument renderedFragment = renderedDocuments.get(index.getGeneration(), variantKey);
+        if (renderedFragment == null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream(RENDER_BUFFER_SIZE);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(content, StandardCharsets.UTF_8));
+            writeDependencies(writer, index, dependencyOutputPrefix);
+            writer.close();
+            renderedFragment = new RenderedDocument(content.toByteArray());
+            renderedDocuments.put(index.getGeneration(), variantKey, renderedFragment);
+        }
+        return renderedFragment;
     }
 
-    public String generateDependenciesPomFragment(BundleContext bundleContext, String dependencyOutputPrefix) throws IOException {
-        dependencyOutputPrefix = dependencyOutputPrefix != null ? dependencyOutputPrefix : this.dependencyOutputPrefix;
-        Set<ArtifactInformation> dependencyList = getGeneratedDependencyList(bundleContext);
-        StringWriter pomDependencies = new StringWriter();
-        for (ArtifactInformation dependency : dependencyList) {
-            pomDependencies.write(dependency.getDependencyPomFragment(scopeProvided, dependencyOutputPrefix));
+    private void writeDependencies(Writer writer, ArtifactIndex index, String dependencyOutputPrefix) throws IOException {
+        for (ArtifactInformation dependency : index.getDependencies()) {
+            dependency.writeDependencyPomFragment(writer, scopeProvided, dependencyOutputPrefix);
         }
-        return pomDependencies.toString();
     }
 
     public Set<ArtifactInformation> getGeneratedDependencyList(BundleContext bundleContext) throws IOException {
+        return getArtifactIndex(bundleContext).getDependencies();
+    }
 
-        Set<ArtifactInformation> dependencies = new TreeSet<>();
-
-        for (Bundle bundle : bundleContext.getBundles()) {
-            Enumeration pomResourcesInBundle = bundle.findEntries("META-INF", "pom.properties", true);
-            boolean bundleExportsPackages = bundle.getHeaders().get("Export-Package") != null;
-            boolean bundleIsFragment = bundle.getHeaders().get("Fragment-Host") != null;
-            if (ignoreBundleFromExport(bundle.getSymbolicName())) {
-                LOGGER.trace("Ignore OSGi Bundle [" + bundle.getSymbolicName() + "] from export.");
-            } else if (bundleIsFragment) {
-                ArtifactInformation dependency = new ArtifactInformation(bundle.getSymbolicName() + " [skipped because it's a fragment]");
-                dependencies.add(dependency);
-            } else if (pomResourcesInBundle == null) {
-                if (artifactMappings.containsKey(bundle.getSymbolicName())) {
-                    ArtifactMapping artifactMapping = artifactMappings.get(bundle.getSymbolicName());
-
-                    String version = StringUtils.isNotEmpty(artifactMapping.getVersion()) ? artifactMapping.getVersion() : bundle.getVersion().toString();
-                    String artifactId = StringUtils.isNotEmpty(artifactMapping.getArtifactId()) ? artifactMapping.getArtifactId() : bundle.getSymbolicName();
-                    String groupId = artifactMapping.getGroupId();
-                    String artifactComment = bundle.getSymbolicName();
-
-                    ArtifactInformation dependency = new ArtifactInformation(groupId, artifactId, version, artifactComment, bundle);
-                    dependencies.add(dependency);
-                } else {
-                    ArtifactInformation dependency = new ArtifactInformation(bundle.getSymbolicName() + " [skipped because of missing pom properties]");
-                    dependencies.add(dependency);
-                }
-            } else if (!bundleExportsPackages) {
-                ArtifactInformation dependency = new ArtifactInformation(bundle.getSymbolicName() + " [skipped due to no exports]");
-                dependencies.add(dependency);
-            } else {
-                while (pomResourcesInBundle.hasMoreElements()) {
-                    URL pomResource = (URL) pomResourcesInBundle.nextElement();
-                    java.util.Properties properties = new java.util.Properties();
-                    properties.load(pomResource.openStream());
-
-                    String version = properties.get("version").toString();
-                    String artifactId = properties.get("artifactId").toString();
-                    String groupId = properties.get("groupId").toString();
-                    String artifactComment = bundle.getSymbolicName();
-
-                    if (artifactMappings.containsKey(bundle.getSymbolicName())) {
-                        ArtifactMapping artifactMapping = artifactMappings.get(bundle.getSymbolicName());
-
-                        version = StringUtils.isNotEmpty(artifactMapping.getVersion()) ? artifactMapping.getVersion() : version;
-                        artifactId = StringUtils.isNotEmpty(artifactMapping.getArtifactId()) ? artifactMapping.getArtifactId() : artifactId;
-                        groupId = artifactMapping.getGroupId();
+    /**
+     * Returns an immutable snapshot of the artifacts provided by the installed bundles. The bundles are scanned
+     * once, afterwards only bundles reported as installed, updated or uninstalled are rescanned.
+     */
+    public ArtifactIndex getArtifactIndex(BundleContext bundleContext) throws IOException {
+        ArtifactIndex snapshot = artifactIndex;
+        if (snapshot == null) {
+            synchronized (indexLock) {
+                snapshot = artifactIndex;
+                if (snapshot == null) {
+                    long startTime = System.currentTimeMillis();
+                    Map<Long, ArtifactIndexStore.StoredBundle> storedBundles = artifactIndexStore.load();
+                    List<Bundle> bundlesToScan = new ArrayList<>();
+                    bundleArtifacts.clear();
+                    bundleRevisions.clear();
+                    for (Bundle bundle : this.bundleContext.getBundles()) {
+                        ArtifactIndexStore.StoredBundle storedBundle = storedBundles.get(bundle.getBundleId());
+                        if (storedBundle != null && storedBundle.getLastModified() == bundle.getLastModified()) {
+                            bundleArtifacts.put(bundle.getBundleId(), storedBundle.getArtifacts(bundle));
+                            bundleRevisions.put(bundle.getBundleId(), storedBundle.getLastModified());
+                        } else {
+                            bundlesToScan.add(bundle);
+                        }
                     }
+                    scanBundles(bundlesToScan);
+                    int scannedBundles = bundlesToScan.size();
+                    snapshot = publishSnapshot();
+                    if (scannedBundles > 0) {
+                        artifactIndexStore.save(bundleArtifacts, bundleRevisions);
+                    }
+                    LOGGER.info("Artifact index of [" + bundleArtifacts.size() + "] bundles loaded in [" + (System.currentTimeMillis() - startTime)
+                            + "ms], [" + scannedBundles + "] bundles scanned.");
+                }
+            }
+        }
+        return snapshot;
+    }
 
-                    ArtifactInformation dependency = new ArtifactInformation(groupId, artifactId, version, artifactComment, bundle);
-                    dependencies.add(dependency);
+    private void scheduleIndexUpdate(long bundleId) {
+        synchronized (pendingUpdateLock) {
+            changedBundleIds.add(bundleId);
+
+            long now = System.currentTimeMillis();
+            if (firstPendingBundleEvent == 0) {
+                firstPendingBundleEvent = now;
+            }
+            if (pendingIndexUpdate != null) {
+                if (now - firstPendingBundleEvent >= indexUpdateMaxDelay) {
+                    return;
                 }
+                pendingIndexUpdate.cancel(false);
+            }
+            long delay = Math.max(0, Math.min(indexUpdateDelay, firstPendingBundleEvent + indexUpdateMaxDelay - now));
+            try {
+                pendingIndexUpdate = indexUpdateExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        updateIndex();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ex) {
+                LOGGER.debug("Index update not scheduled because the component is deactivated.");
             }
         }
+    }
 
-        filterDuplicateArtifacts(dependencies);
+    private void updateIndex() {
+        Set<Long> bundleIds;
+        synchronized (pendingUpdateLock) {
+            pendingIndexUpdate = null;
+            firstPendingBundleEvent = 0;
+            bundleIds = new HashSet<>(changedBundleIds);
+            changedBundleIds.clear();
+        }
 
-        return dependencies;
+        synchronized (indexLock) {
+            if (artifactIndex == null) {
+                // nothing scanned so far, the next reader performs the full scan
+                return;
+            }
+
+            List<Bundle> bundlesToScan = new ArrayList<>();
+            for (Long bundleId : bundleIds) {
+                Bundle bundle = bundleContext.getBundle(bundleId);
+                bundleArtifacts.remove(bundleId);
+                bundleRevisions.remove(bundleId);
+                if (bundle != null && bundle.getState() != Bundle.UNINSTALLED) {
+                    bundlesToScan.add(bundle);
+                }
+            }
+            try {
+                scanBundles(bundlesToScan);
+            } catch (InterruptedIOException ex) {
+                LOGGER.debug("Index update interrupted because the component is deactivated.");
+                return;
+            }
+            LOGGER.debug("Rescanned [" + bundleIds.size() + "] changed bundles.");
+
+            publishSnapshot();
+            artifactIndexStore.save(bundleArtifacts, bundleRevisions);
+        }
     }
 
     /**
-     * Looks for dependencies with the same artifact id and group id and removes the duplicates with the smaller version numbers
-     *
-     * @param dependenciesToBeFiltered goeas through the list and applies the described filter
+     * Scans the bundles, in parallel in case scan threads are configured, and stores their artifacts and revisions.
+     * A bundle which cannot be scanned is logged and left out of the index, the others aren't affected.
+     * The result doesn't depend on the order the scans complete in, the snapshot sorts all artifacts.
      */
-    private void filterDuplicateArtifacts(Set<ArtifactInformation> dependenciesToBeFiltered) {
-        List<ArtifactInformation> dependenciesToBeRemoved = new ArrayList<>();
+    private void scanBundles(List<Bundle> bundles) throws InterruptedIOException {
+        if (scanExecutor == null || bundles.size() <= 1) {
+            for (Bundle bundle : bundles) {
+                long lastModified = bundle.getLastModified();
+                try {
+                    bundleArtifacts.put(bundle.getBundleId(), scanBundle(bundle));
+                    bundleRevisions.put(bundle.getBundleId(), lastModified);
+                } catch (Exception ex) {
+                    LOGGER.warn("Cannot scan bundle [" + bundle.getSymbolicName() + "], it's left out of the index.", ex);
+                }
+            }
+            return;
+        }
 
-        for (ArtifactInformation dependencyToBeFiltered : dependenciesToBeFiltered) {
-            boolean removeDependency = false;
-            for (ArtifactInformation dependencyArtifact : dependenciesToBeFiltered) {
-                removeDependency = dependencyArtifact.isArtifactAndGroupIdEqual(dependencyToBeFiltered) && dependencyArtifact.getMavenVersion().compareTo(dependencyToBeFiltered.getMavenVersion()) > 0;
+        List<Future<List<ArtifactInformation>>> scans = new ArrayList<>(bundles.size());
+        List<Long> revisions = new ArrayList<>(bundles.size());
+        for (final Bundle bundle : bundles) {
+            revisions.add(bundle.getLastModified());
+            try {
+                scans.add(scanExecutor.submit(new Callable<List<ArtifactInformation>>() {
+                    @Override
+                    public List<ArtifactInformation> call() throws IOException {
+                        return scanBundle(bundle);
+                    }
+                }));
+            } catch (RejectedExecutionException ex) {
+                cancelScans(scans);
+                throw new InterruptedIOException("Bundle scan rejected because the component is deactivated");
+            }
+        }
 
-                if (removeDependency) {
-                    break;
-                }
+        for (int i = 0; i < bundles.size(); i++) {
+            Bundle bundle = bundles.get(i);
+            try {
+                bundleArtifacts.put(bundle.getBundleId(), scans.get(i).get());
+                bundleRevisions.put(bundle.getBundleId(), revisions.get(i));
+            } catch (ExecutionException ex) {
+                LOGGER.warn("Cannot scan bundle [" + bundle.getSymbolicName() + "], it's left out of the index.", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                cancelScans(scans);
+                throw new InterruptedIOException("Interrupted while scanning bundles");
             }
-            if (removeDependency) {
-                dependenciesToBeRemoved.add(dependencyToBeFiltered);
-                LOGGER.debug("Will remove dependency ["+ dependencyToBeFiltered.getArtifactIdentifier() +"] because there is an identical dependency with a higher version number.");
+        }
+    }
+
+    private static void cancelScans(List<Future<List<ArtifactInformation>>> scans) {
+        for (Future<List<ArtifactInformation>> scan : scans) {
+            scan.cancel(true);
+        }
+    }
+
+    private ArtifactIndex publishSnapshot() {
+        Set<ArtifactInformation> dependencies = new TreeSet<>();
+        for (List<ArtifactInformation> artifactsOfBundle : bundleArtifacts.values()) {
+            dependencies.addAll(artifactsOfBundle);
+        }
+
+        DuplicateArtifactFilter.filter(dependencies);
+
+        ArtifactIndex snapshot = new ArtifactIndex(++indexGeneration, dependencies);
+        artifactIndex = snapshot;
+
+        for (ArtifactIndexListener listener : artifactIndexListeners) {
+            try {
+                listener.artifactIndexUpdated(snapshot);
+            } catch (Exception ex) {
+                LOGGER.error("Artifact index listener failed.", ex);
             }
         }
-        dependenciesToBeFiltered.removeAll(dependenciesToBeRemoved);
+        return snapshot;
+    }
+
+    public CacheStatistics getRenderedDocumentStatistics() {
+        return renderedDocuments.getStatistics();
+    }
+
+    public void addArtifactIndexListener(ArtifactIndexListener listener) {
+        artifactIndexListeners.add(listener);
+    }
+
+    public void removeArtifactIndexListener(ArtifactIndexListener listener) {
+        artifactIndexListeners.remove(listener);
     }
 
+    private List<ArtifactInformation> scanBundle(Bundle bundle) throws IOException {
+        List<ArtifactInformation> dependencies = new ArrayList<>();
+
+        Enumeration pomResourcesInBundle = bundle.findEntries("META-INF", "pom.properties", true);
+        boolean bundleExportsPackages = bundle.getHeaders().get("Export-Package") != null;
+        boolean bundleIsFragment = bundle.getHeaders().get("Fragment-Host") != null;
+        if (bundleRules.isIgnored(bundle.getSymbolicName())) {
+            LOGGER.trace("Ignore OSGi Bundle [" + bundle.getSymbolicName() + "] from export.");
+        } else if (bundleIsFragment) {
+            ArtifactInformation dependency = new ArtifactComment(bundle.getSymbolicName() + " [skipped because it's a fragment]");
+            dependencies.add(dependency);
+        } else if (pomResourcesInBundle == null) {
+            ArtifactMapping artifactMapping = bundleRules.getMapping(bundle.getSymbolicName());
+            if (artifactMapping != null) {
+                String version = StringUtils.isNotEmpty(artifactMapping.getVersion()) ? artifactMapping.getVersion() : bundle.getVersion().toString();
+                String artifactId = StringUtils.isNotEmpty(artifactMapping.getArtifactId()) ? artifactMapping.getArtifactId() : bundle.getSymbolicName();
+                String groupId = artifactMapping.getGroupId();
+                String artifactComment = bundle.getSymbolicName();
+
+                ArtifactInformation dependency = new ArtifactInformation(groupId, artifactId, version, artifactComment, bundle);
+                dependencies.add(dependency);
+            } else {
+                ArtifactInformation dependency = new ArtifactComment(bundle.getSymbolicName() + " [skipped because of missing pom properties]");
+                dependencies.add(dependency);
+            }
+        } else if (!bundleExportsPackages) {
+            ArtifactInformation dependency = new ArtifactComment(bundle.getSymbolicName() + " [skipped due to no exports]");
+            dependencies.add(dependency);
+        } else {
+            while (pomResourcesInBundle.hasMoreElements()) {
+                URL pomResource = (URL) pomResourcesInBundle.nextElement();
+                java.util.Properties properties = new java.util.Properties();
+                InputStream pomResourceInputStream = pomResource.openStream();
+                try {
+                    properties.load(pomResourceInputStream);
+                } finally {
+                    pomResourceInputStream.close();
+                }
 
-    private boolean ignoreBundleFromExport(String bundleArtifactName) {
-        for (Pattern bundleToBeIgnored : bundlesToBeIgnored) {
-            if (bundleToBeIgnored.matcher(bundleArtifactName).matches()) {
-                LOGGER.debug("Bundle [" + bundleArtifactName + "] will be ignored because of matching ignore pattern [" + bundleToBeIgnored.pattern() + "]");
-                return true;
+                String version = properties.get("version").toString();
+                String artifactId = properties.get("artifactId").toString();
+                String groupId = properties.get("groupId").toString();
+                String artifactComment = bundle.getSymbolicName();
+
+                ArtifactMapping artifactMapping = bundleRules.getMapping(bundle.getSymbolicName());
+                if (artifactMapping != null) {
+                    version = StringUtils.isNotEmpty(artifactMapping.getVersion()) ? artifactMapping.getVersion() : version;
+                    artifactId = StringUtils.isNotEmpty(artifactMapping.getArtifactId()) ? artifactMapping.getArtifactId() : artifactId;
+                    groupId = artifactMapping.getGroupId();
+                }
+
+                ArtifactInformation dependency = new ArtifactInformation(groupId, artifactId, version, artifactComment, bundle);
+                dependencies.add(dependency);
             }
         }
 
-        return false;
+        return dependencies;
+    }
+
+    /**
+     * @return fingerprint of the configuration the scan results depend on
+     */
+    private static String getConfigurationKey(String[] dependencyMappingList, String[] listIgnoreBundle) {
+        StringBuilder configuration = new StringBuilder();
+        for (String dependencyMapping : dependencyMappingList) {
+            configuration.append("mapping:").append(dependencyMapping).append('\n');
+        }
+        for (String ignoreBundle : listIgnoreBundle) {
+            configuration.append("ignore:").append(ignoreBundle).append('\n');
+        }
+        return ArtifactChecksums.of(configuration.toString().getBytes(StandardCharsets.UTF_8)).getSha1();
     }
 
 }
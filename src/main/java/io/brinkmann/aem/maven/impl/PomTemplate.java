@@ -0,0 +1,87 @@
+package io.brinkmann.aem.maven.impl;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * POM template split once into its literal parts and <code>{n}</code> placeholders, so rendering only writes the
+ * parts and the placeholder values to a writer.
+ */
+public class PomTemplate {
+
+    /**
+     * Writes the value of a placeholder to the rendered document.
+     */
+    public interface PlaceholderWriter {
+        void write(int placeholder, Writer writer) throws IOException;
+    }
+
+    private final String[] literals;
+
+    private final int[] placeholders;
+
+    private PomTemplate(String[] literals, int[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+    }
+
+    public static PomTemplate load(URL templateResource) throws IOException {
+        InputStream input = templateResource.openStream();
+        try {
+            return parse(IOUtils.toString(input, StandardCharsets.UTF_8.name()));
+        } finally {
+            input.close();
+        }
+    }
+
+    public static PomTemplate parse(String template) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> placeholders = new ArrayList<>();
+
+        int literalStart = 0;
+        int position = template.indexOf('{');
+        while (position >= 0) {
+            int placeholderEnd = template.indexOf('}', position);
+            int placeholder = placeholderEnd > position + 1 ? parsePlaceholder(template.substring(position + 1, placeholderEnd)) : -1;
+            if (placeholder >= 0) {
+                literals.add(template.substring(literalStart, position));
+                placeholders.add(placeholder);
+                literalStart = placeholderEnd + 1;
+                position = template.indexOf('{', literalStart);
+            } else {
+                position = template.indexOf('{', position + 1);
+            }
+        }
+        literals.add(template.substring(literalStart));
+
+        int[] placeholderArray = new int[placeholders.size()];
+        for (int i = 0; i < placeholderArray.length; i++) {
+            placeholderArray[i] = placeholders.get(i);
+        }
+        return new PomTemplate(literals.toArray(new String[literals.size()]), placeholderArray);
+    }
+
+    private static int parsePlaceholder(String placeholder) {
+        for (int i = 0; i < placeholder.length(); i++) {
+            if (!Character.isDigit(placeholder.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(placeholder);
+    }
+
+    public void render(Writer writer, PlaceholderWriter placeholderWriter) throws IOException {
+        for (int i = 0; i < placeholders.length; i++) {
+            writer.write(literals[i]);
+            placeholderWriter.write(placeholders[i], writer);
+        }
+        writer.write(literals[literals.length - 1]);
+    }
+}
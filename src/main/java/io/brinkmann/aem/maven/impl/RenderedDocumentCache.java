@@ -0,0 +1,60 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.CacheStatistics;
+import io.brinkmann.aem.maven.model.RenderedDocument;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the least recently used rendered documents of the current artifact index generation. Documents of an
+ * older generation are dropped as soon as a newer generation is requested.
+ */
+public class RenderedDocumentCache {
+
+    private final Map<String, RenderedDocument> documents;
+
+    private long generation;
+
+    private final CacheCounter statistics = new CacheCounter();
+
+    public RenderedDocumentCache(final int maxDocuments) {
+        documents = new LinkedHashMap<String, RenderedDocument>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RenderedDocument> eldest) {
+                return size() > maxDocuments;
+            }
+        };
+    }
+
+    /**
+     * @return the cached document, null in case it wasn't rendered for this generation yet
+     */
+    public synchronized RenderedDocument get(long generation, String key) {
+        if (generation > this.generation) {
+            documents.clear();
+            this.generation = generation;
+        }
+        RenderedDocument document = generation == this.generation ? documents.get(key) : null;
+        if (document != null) {
+            statistics.recordHit();
+        } else {
+            statistics.recordMiss();
+        }
+        return document;
+    }
+
+    public synchronized void put(long generation, String key, RenderedDocument document) {
+        if (generation == this.generation) {
+            documents.put(key, document);
+        }
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    public synchronized void clear() {
+        documents.clear();
+    }
+}
@@ -0,0 +1,384 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.model.ArtifactChecksums;
+import io.brinkmann.aem.maven.model.ArtifactComment;
+import io.brinkmann.aem.maven.model.ArtifactIndex;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import io.brinkmann.aem.maven.model.ArtifactMetadata;
+import io.brinkmann.aem.maven.model.RenderedDocument;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the artifacts of an index in Maven repository layout as a single zip or tar archive: the jar, pom and
+ * their checksums of each version and the <code>maven-metadata.xml</code> of each artifact id directory.
+ * <p>
+ * The archives and checksums of the next artifacts are prepared in parallel while the current one is written. Only
+ * a fixed number of artifacts is prepared ahead and their archives are streamed from the archive cache, so the
+ * memory used by an export doesn't grow with the size of the repository. Archives which have to be built take a
+ * build permit of the admission controller while they're built, so exports share the build limit with requests.
+ */
+public class RepositoryExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryExporter.class);
+
+    public static final String FORMAT_ZIP = "zip";
+
+    public static final String FORMAT_TAR = "tar";
+
+    private static final String[] EXPORTED_CHECKSUMS = {"sha1", "md5"};
+
+    private static final String MAVEN_METADATA_FILE_NAME = "maven-metadata.xml";
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final BundleArchiveCache bundleArchiveCache;
+
+    private final AdmissionController admissionController;
+
+    private final ExecutorService executor;
+
+    private final int maxArtifactsInFlight;
+
+    /**
+     * @param admissionController  hands out the permits for the archives which have to be built
+     * @param executor             executor preparing the artifacts, must not be the executor of the archive builder
+     * @param maxArtifactsInFlight number of artifacts prepared ahead of the artifact being written
+     */
+    public RepositoryExporter(BundleArchiveCache bundleArchiveCache, AdmissionController admissionController, ExecutorService executor, int maxArtifactsInFlight) {
+        this.bundleArchiveCache = bundleArchiveCache;
+        this.admissionController = admissionController;
+        this.executor = executor;
+        this.maxArtifactsInFlight = Math.max(1, maxArtifactsInFlight);
+    }
+
+    /**
+     * Selects the artifacts of an export.
+     */
+    public static class Filter {
+
+        private final List<String> groupPrefixes;
+
+        private final long changedSince;
+
+        /**
+         * @param groupPrefixes group ids whose artifacts and sub groups are exported, all groups in case it's empty
+         * @param changedSince  only artifacts of bundles modified after this time in milliseconds are exported, all for 0
+         */
+        public Filter(List<String> groupPrefixes, long changedSince) {
+            this.groupPrefixes = groupPrefixes;
+            this.changedSince = changedSince;
+        }
+
+        public boolean accept(ArtifactInformation artifact) {
+            Bundle bundle = artifact.getAssociatedBundle();
+            return bundle != null && bundle.getLastModified() > changedSince && acceptGroup(artifact.getGroupId());
+        }
+
+        private boolean acceptGroup(String groupId) {
+            if (groupPrefixes.isEmpty()) {
+                return true;
+            }
+            for (String groupPrefix : groupPrefixes) {
+                if (groupId.equals(groupPrefix) || groupId.startsWith(groupPrefix + ".")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Writes the archive, the output stream is flushed but not closed. Artifacts whose archive cannot be built are
+     * left out.
+     *
+     * @param format {@link #FORMAT_ZIP} or {@link #FORMAT_TAR}
+     * @return number of exported artifacts
+     */
+    public int export(ArtifactIndex artifactIndex, Filter filter, String format, OutputStream output) throws IOException {
+        ExportWriter exportWriter = FORMAT_TAR.equals(format) ? new TarExportWriter(output) : new ZipExportWriter(output);
+        boolean computeCrc = exportWriter instanceof ZipExportWriter;
+
+        List<ArtifactInformation> artifacts = new ArrayList<>();
+        for (ArtifactInformation artifact : artifactIndex.getDependencies()) {
+            if (!(artifact instanceof ArtifactComment) && filter.accept(artifact)) {
+                artifacts.add(artifact);
+            }
+        }
+
+        int exportedArtifacts = 0;
+        Deque<Future<PreparedArtifact>> artifactsInFlight = new ArrayDeque<>();
+        String currentArtifactDirectory = null;
+        try {
+            int nextArtifact = 0;
+            while (nextArtifact < artifacts.size() || !artifactsInFlight.isEmpty()) {
+                while (nextArtifact < artifacts.size() && artifactsInFlight.size() < maxArtifactsInFlight) {
+                    artifactsInFlight.add(submit(new PrepareArtifactTask(artifacts.get(nextArtifact++), computeCrc)));
+                }
+
+                PreparedArtifact preparedArtifact = getPreparedArtifact(artifactsInFlight.poll());
+                if (preparedArtifact == null) {
+                    continue;
+                }
+
+                try {
+                    ArtifactInformation artifact = preparedArtifact.artifact;
+                    String artifactDirectory = artifact.getGroupId().replace('.', '/') + "/" + artifact.getArtifactId() + "/";
+                    if (!artifactDirectory.equals(currentArtifactDirectory)) {
+                        currentArtifactDirectory = artifactDirectory;
+                        writeMetadata(exportWriter, artifactDirectory, artifactIndex.getArtifactMetadata(artifact.getGroupId(), artifact.getArtifactId()));
+                    }
+                    writeArtifact(exportWriter, artifactDirectory, preparedArtifact);
+                    exportedArtifacts++;
+                } finally {
+                    preparedArtifact.deleteTemporaryArchive();
+                }
+            }
+        } finally {
+            for (Future<PreparedArtifact> artifactInFlight : artifactsInFlight) {
+                if (!artifactInFlight.cancel(true)) {
+                    discard(artifactInFlight);
+                }
+            }
+        }
+        exportWriter.finish();
+        return exportedArtifacts;
+    }
+
+    private Future<PreparedArtifact> submit(PrepareArtifactTask task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException ex) {
+            FutureTask<PreparedArtifact> futureTask = new FutureTask<>(task);
+            futureTask.run();
+            return futureTask;
+        }
+    }
+
+    /**
+     * Removes the temporary archive of an artifact which was prepared but won't be written anymore.
+     */
+    private static void discard(Future<PreparedArtifact> artifactInFlight) {
+        try {
+            artifactInFlight.get().deleteTemporaryArchive();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // nothing to clean up
+        }
+    }
+
+    /**
+     * @return the prepared artifact, null in case it failed
+     */
+    private PreparedArtifact getPreparedArtifact(Future<PreparedArtifact> artifactInFlight) throws IOException {
+        try {
+            return artifactInFlight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while exporting repository");
+        } catch (ExecutionException ex) {
+            LOGGER.warn("Artifact left out of the export.", ex.getCause());
+            return null;
+        }
+    }
+
+    private void writeMetadata(ExportWriter exportWriter, String artifactDirectory, ArtifactMetadata metadata) throws IOException {
+        if (metadata == null) {
+            return;
+        }
+        String path = artifactDirectory + MAVEN_METADATA_FILE_NAME;
+        exportWriter.writeEntry(path, metadata.getLastModified(), metadata.getDocument().getContent());
+        writeChecksums(exportWriter, path, metadata.getLastModified(), metadata.getChecksums());
+    }
+
+    private void writeArtifact(ExportWriter exportWriter, String artifactDirectory, PreparedArtifact preparedArtifact) throws IOException {
+        ArtifactInformation artifact = preparedArtifact.artifact;
+        long time = artifact.getAssociatedBundle().getLastModified();
+        String basePath = artifactDirectory + artifact.getVersion() + "/" + artifact.getArtifactId() + "-" + artifact.getVersion();
+
+        exportWriter.writeEntry(basePath + ".jar", time, preparedArtifact.archive, preparedArtifact.archiveCrc);
+        writeChecksums(exportWriter, basePath + ".jar", time, preparedArtifact.archiveChecksums);
+
+        exportWriter.writeEntry(basePath + ".pom", time, preparedArtifact.pom.getContent());
+        writeChecksums(exportWriter, basePath + ".pom", time, preparedArtifact.pom.getChecksums());
+    }
+
+    private void writeChecksums(ExportWriter exportWriter, String path, long time, ArtifactChecksums checksums) throws IOException {
+        for (String checksumExtension : EXPORTED_CHECKSUMS) {
+            exportWriter.writeEntry(path + "." + checksumExtension, time, checksums.getChecksum(checksumExtension).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static long computeCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        try (InputStream input = new FileInputStream(file)) {
+            int length;
+            while ((length = input.read(buffer)) != -1) {
+                crc.update(buffer, 0, length);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Resolves the archive of an artifact, its checksums and the CRC-32 needed by the zip format.
+     */
+    private class PrepareArtifactTask implements Callable<PreparedArtifact> {
+
+        private final ArtifactInformation artifact;
+
+        private final boolean computeCrc;
+
+        private PrepareArtifactTask(ArtifactInformation artifact, boolean computeCrc) {
+            this.artifact = artifact;
+            this.computeCrc = computeCrc;
+        }
+
+        @Override
+        public PreparedArtifact call() throws IOException {
+            Bundle bundle = artifact.getAssociatedBundle();
+            File archive = bundleArchiveCache.getAvailableArchive(bundle);
+            boolean temporaryArchive = false;
+            if (archive == null) {
+                admissionController.awaitBuildPermit();
+                try {
+                    archive = bundleArchiveCache.getArchive(bundle);
+                    if (archive == null) {
+                        // archive cache disabled and no original bundle file
+                        archive = buildTemporaryArchive(bundle);
+                        temporaryArchive = true;
+                    }
+                } finally {
+                    admissionController.releaseBuildPermit();
+                }
+            }
+
+            PreparedArtifact preparedArtifact = new PreparedArtifact();
+            preparedArtifact.artifact = artifact;
+            preparedArtifact.archive = archive;
+            preparedArtifact.temporaryArchive = temporaryArchive;
+            preparedArtifact.archiveChecksums = bundleArchiveCache.getChecksums(bundle);
+            preparedArtifact.archiveCrc = computeCrc ? computeCrc(archive) : 0;
+            preparedArtifact.pom = artifact.getPomDocument();
+            return preparedArtifact;
+        }
+
+        private File buildTemporaryArchive(Bundle bundle) throws IOException {
+            File archive = File.createTempFile("export-" + bundle.getBundleId() + "-", ".jar");
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(archive))) {
+                bundleArchiveCache.writeArchive(bundle, output);
+            } catch (IOException ex) {
+                if (!archive.delete()) {
+                    LOGGER.warn("Cannot delete temporary archive [" + archive + "]");
+                }
+                throw ex;
+            }
+            return archive;
+        }
+    }
+
+    private static class PreparedArtifact {
+
+        private ArtifactInformation artifact;
+
+        private File archive;
+
+        private boolean temporaryArchive;
+
+        private ArtifactChecksums archiveChecksums;
+
+        private long archiveCrc;
+
+        private RenderedDocument pom;
+
+        private void deleteTemporaryArchive() {
+            if (temporaryArchive && archive.exists() && !archive.delete()) {
+                LOGGER.warn("Cannot delete temporary archive [" + archive + "]");
+            }
+        }
+    }
+
+    /**
+     * Writes the entries in the format of the export.
+     */
+    private abstract static class ExportWriter {
+
+        abstract void writeEntry(String path, long time, byte[] content) throws IOException;
+
+        abstract void writeEntry(String path, long time, File file, long crc) throws IOException;
+
+        abstract void finish() throws IOException;
+    }
+
+    private static class ZipExportWriter extends ExportWriter {
+
+        private final ZipArchiveWriter zipArchiveWriter;
+
+        private ZipExportWriter(OutputStream output) {
+            zipArchiveWriter = new ZipArchiveWriter(output);
+        }
+
+        @Override
+        void writeEntry(String path, long time, byte[] content) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            zipArchiveWriter.putEntry(path, time, ZipArchiveWriter.METHOD_STORED, crc.getValue(), content.length, content, content.length);
+        }
+
+        @Override
+        void writeEntry(String path, long time, File file, long crc) throws IOException {
+            long size = file.length();
+            zipArchiveWriter.putEntryHeader(path, time, ZipArchiveWriter.METHOD_STORED, crc, size, size);
+            BundleArchiveCache.transferFile(file, 0, size, zipArchiveWriter.getEntryOutput());
+        }
+
+        @Override
+        void finish() throws IOException {
+            zipArchiveWriter.finish();
+        }
+    }
+
+    private static class TarExportWriter extends ExportWriter {
+
+        private final TarArchiveWriter tarArchiveWriter;
+
+        private TarExportWriter(OutputStream output) {
+            tarArchiveWriter = new TarArchiveWriter(output);
+        }
+
+        @Override
+        void writeEntry(String path, long time, byte[] content) throws IOException {
+            tarArchiveWriter.putEntry(path, time, content, content.length);
+        }
+
+        @Override
+        void writeEntry(String path, long time, File file, long crc) throws IOException {
+            long size = file.length();
+            tarArchiveWriter.putEntryHeader(path, time, size);
+            BundleArchiveCache.transferFile(file, 0, size, tarArchiveWriter.getEntryOutput());
+            tarArchiveWriter.closeEntry();
+        }
+
+        @Override
+        void finish() throws IOException {
+            tarArchiveWriter.finish();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.CacheStatistics;
+import io.brinkmann.aem.maven.Counter;
+import io.brinkmann.aem.maven.RepositoryMetrics;
+import io.brinkmann.aem.maven.RepositoryMetricsMBean;
+import io.brinkmann.aem.maven.model.RequestTimer;
+import org.apache.felix.scr.annotations.*;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps latency histograms and counters per endpoint and file type in memory and registers them as MBean
+ * <code>io.brinkmann.aem.maven:type=RepositoryMetrics</code> through the JMX whiteboard.
+ */
+@Service(value = io.brinkmann.aem.maven.RepositoryMetrics.class)
+@Component(immediate = true, metatype = true, label = "Maven Repository Metrics", description = "Collects latency, traffic and cache statistics of the Maven repository.")
+public class RepositoryMetricsImpl implements RepositoryMetrics, RepositoryMetricsMBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryMetricsImpl.class);
+
+    private static final String JMX_OBJECT_NAME_PROPERTY = "jmx.objectname";
+
+    private static final String JMX_OBJECT_NAME = "io.brinkmann.aem.maven:type=RepositoryMetrics";
+
+    @Property(intValue = 1000, label = "Slow Request Threshold", description = "Requests taking longer than this number of milliseconds are logged with their phase timings, 0 disables the log.")
+    private static final String PROP_SLOW_REQUEST_THRESHOLD = "slowRequestThreshold";
+    private static final int PROP_SLOW_REQUEST_THRESHOLD_DEFAULT_VALUE = 1000;
+
+    private final ConcurrentMap<String, RequestStatistics> requestStatistics = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CacheStatistics> cacheStatistics = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private final AtomicLong slowRequests = new AtomicLong();
+
+    private long slowRequestThreshold = PROP_SLOW_REQUEST_THRESHOLD_DEFAULT_VALUE;
+
+    private ServiceRegistration mbeanRegistration;
+
+    /**
+     * Counters and histograms of one endpoint and file type.
+     */
+    private static class RequestStatistics {
+
+        final String endpoint;
+
+        final String fileType;
+
+        final LatencyHistogram total = new LatencyHistogram();
+
+        final LatencyHistogram[] phases = new LatencyHistogram[RequestTimer.Phase.values().length];
+
+        final AtomicLong bytes = new AtomicLong();
+
+        final AtomicLong notFound = new AtomicLong();
+
+        final AtomicLong rejected = new AtomicLong();
+
+        RequestStatistics(String endpoint, String fileType) {
+            this.endpoint = endpoint;
+            this.fileType = fileType;
+            for (int phase = 0; phase < phases.length; phase++) {
+                phases[phase] = new LatencyHistogram();
+            }
+        }
+    }
+
+    @Override
+    public RequestTimer startRequest(String endpoint, String path) {
+        return new RequestTimer(endpoint, path);
+    }
+
+    @Override
+    public void recordRequest(RequestTimer timer) {
+        timer.stop();
+
+        String key = timer.getEndpoint() + "/" + timer.getFileType();
+        RequestStatistics statistics = requestStatistics.get(key);
+        if (statistics == null) {
+            RequestStatistics newStatistics = new RequestStatistics(timer.getEndpoint(), timer.getFileType());
+            statistics = requestStatistics.putIfAbsent(key, newStatistics);
+            statistics = statistics != null ? statistics : newStatistics;
+        }
+
+        long duration = timer.getDurationMillis();
+        statistics.total.record(duration);
+        for (RequestTimer.Phase phase : RequestTimer.Phase.values()) {
+            statistics.phases[phase.ordinal()].record(timer.getPhaseMillis(phase));
+        }
+        statistics.bytes.addAndGet(timer.getBytes());
+        if (timer.isNotFound()) {
+            statistics.notFound.incrementAndGet();
+        }
+        if (timer.isRejected()) {
+            statistics.rejected.incrementAndGet();
+        }
+
+        if (slowRequestThreshold > 0 && duration >= slowRequestThreshold) {
+            slowRequests.incrementAndGet();
+            LOGGER.warn("Slow request [" + timer.getPath() + "] took [" + duration + "ms]"
+                    + " lookup [" + timer.getPhaseMillis(RequestTimer.Phase.LOOKUP) + "ms]"
+                    + " build [" + timer.getPhaseMillis(RequestTimer.Phase.BUILD) + "ms]"
+                    + " write [" + timer.getPhaseMillis(RequestTimer.Phase.WRITE) + "ms]"
+                    + " bytes [" + timer.getBytes() + "]");
+        }
+    }
+
+    @Override
+    public void addCacheStatistics(String name, CacheStatistics statistics) {
+        cacheStatistics.put(name, statistics);
+    }
+
+    @Override
+    public void removeCacheStatistics(String name) {
+        cacheStatistics.remove(name);
+    }
+
+    @Override
+    public void addCounter(String name, Counter counter) {
+        counters.put(name, counter);
+    }
+
+    @Override
+    public void removeCounter(String name) {
+        counters.remove(name);
+    }
+
+    @Override
+    public long getRequests() {
+        long requests = 0;
+        for (RequestStatistics statistics : requestStatistics.values()) {
+            requests += statistics.total.getCount();
+        }
+        return requests;
+    }
+
+    @Override
+    public long getBytesSent() {
+        long bytes = 0;
+        for (RequestStatistics statistics : requestStatistics.values()) {
+            bytes += statistics.bytes.get();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getNotFound() {
+        long notFound = 0;
+        for (RequestStatistics statistics : requestStatistics.values()) {
+            notFound += statistics.notFound.get();
+        }
+        return notFound;
+    }
+
+    @Override
+    public long getRejected() {
+        long rejected = 0;
+        for (RequestStatistics statistics : requestStatistics.values()) {
+            rejected += statistics.rejected.get();
+        }
+        return rejected;
+    }
+
+    @Override
+    public long getSlowRequests() {
+        return slowRequests.get();
+    }
+
+    @Override
+    public String[] getRequestStatistics() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, RequestStatistics> entry : new TreeMap<>(requestStatistics).entrySet()) {
+            LatencyHistogram total = entry.getValue().total;
+            lines.add(entry.getKey() + " requests=" + total.getCount() + " bytes=" + entry.getValue().bytes.get()
+                    + " notFound=" + entry.getValue().notFound.get() + " rejected=" + entry.getValue().rejected.get() + " p50=" + total.getPercentile(50)
+                    + " p95=" + total.getPercentile(95) + " p99=" + total.getPercentile(99) + " max=" + total.getMax());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String[] getCacheStatistics() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, CacheStatistics> entry : new TreeMap<>(cacheStatistics).entrySet()) {
+            CacheStatistics statistics = entry.getValue();
+            lines.add(entry.getKey() + " hits=" + statistics.getHits() + " misses=" + statistics.getMisses()
+                    + " hitRatio=" + getHitRatio(statistics));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String[] getCounters() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            lines.add(entry.getKey() + " count=" + entry.getValue().getCount());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public String getJson() {
+        StringWriter output = new StringWriter();
+        try {
+            writeJson(output);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return output.toString();
+    }
+
+    @Override
+    public void reset() {
+        requestStatistics.clear();
+        slowRequests.set(0);
+    }
+
+    @Override
+    public void writeJson(Writer output) throws IOException {
+        output.write("{\"requests\":" + getRequests() + ",\"bytes\":" + getBytesSent() + ",\"notFound\":" + getNotFound() + ",\"rejected\":" + getRejected()
+                + ",\"slowRequests\":" + getSlowRequests() + ",\"slowRequestThreshold\":" + slowRequestThreshold);
+
+        output.write(",\"bucketBounds\":[");
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_BOUNDS.length; bucket++) {
+            output.write((bucket > 0 ? "," : "") + LatencyHistogram.BUCKET_BOUNDS[bucket]);
+        }
+        output.write("]");
+
+        output.write(",\"endpoints\":[");
+        boolean first = true;
+        for (RequestStatistics statistics : new TreeMap<>(requestStatistics).values()) {
+            output.write((first ? "" : ",") + "{\"endpoint\":\"" + statistics.endpoint + "\",\"fileType\":\"" + statistics.fileType
+                    + "\",\"bytes\":" + statistics.bytes.get() + ",\"notFound\":" + statistics.notFound.get()
+                    + ",\"rejected\":" + statistics.rejected.get() + ",\"latency\":");
+            writeHistogram(statistics.total, output);
+            output.write(",\"phases\":{");
+            for (RequestTimer.Phase phase : RequestTimer.Phase.values()) {
+                output.write((phase.ordinal() > 0 ? "," : "") + "\"" + phase.name().toLowerCase(Locale.ENGLISH) + "\":");
+                writeHistogram(statistics.phases[phase.ordinal()], output);
+            }
+            output.write("}}");
+            first = false;
+        }
+        output.write("]");
+
+        output.write(",\"caches\":{");
+        first = true;
+        for (Map.Entry<String, CacheStatistics> entry : new TreeMap<>(cacheStatistics).entrySet()) {
+            CacheStatistics statistics = entry.getValue();
+            output.write((first ? "" : ",") + "\"" + entry.getKey() + "\":{\"hits\":" + statistics.getHits()
+                    + ",\"misses\":" + statistics.getMisses() + ",\"hitRatio\":" + getHitRatio(statistics) + "}");
+            first = false;
+        }
+        output.write("}");
+
+        output.write(",\"counters\":{");
+        first = true;
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            output.write((first ? "" : ",") + "\"" + entry.getKey() + "\":" + entry.getValue().getCount());
+            first = false;
+        }
+        output.write("}}");
+    }
+
+    private static void writeHistogram(LatencyHistogram histogram, Writer output) throws IOException {
+        output.write("{\"count\":" + histogram.getCount() + ",\"sum\":" + histogram.getSum() + ",\"max\":" + histogram.getMax()
+                + ",\"p50\":" + histogram.getPercentile(50) + ",\"p95\":" + histogram.getPercentile(95)
+                + ",\"p99\":" + histogram.getPercentile(99) + ",\"buckets\":[");
+        for (int bucket = 0; bucket < histogram.getBucketCount(); bucket++) {
+            output.write((bucket > 0 ? "," : "") + histogram.getBucketCount(bucket));
+        }
+        output.write("]}");
+    }
+
+    private static double getHitRatio(CacheStatistics statistics) {
+        long hits = statistics.getHits();
+        long accesses = hits + statistics.getMisses();
+        return accesses > 0 ? (double) hits / accesses : 0;
+    }
+
+    protected void activate(ComponentContext componentContext) {
+        final Dictionary<?, ?> properties = componentContext.getProperties();
+        slowRequestThreshold = PropertiesUtil.toInteger(properties.get(PROP_SLOW_REQUEST_THRESHOLD), PROP_SLOW_REQUEST_THRESHOLD_DEFAULT_VALUE);
+
+        try {
+            Dictionary<String, Object> mbeanProperties = new Hashtable<>();
+            mbeanProperties.put(JMX_OBJECT_NAME_PROPERTY, JMX_OBJECT_NAME);
+            mbeanRegistration = componentContext.getBundleContext().registerService(DynamicMBean.class.getName(),
+                    new StandardMBean(this, RepositoryMetricsMBean.class), mbeanProperties);
+        } catch (NotCompliantMBeanException ex) {
+            LOGGER.error("Cannot register metrics MBean [" + JMX_OBJECT_NAME + "]", ex);
+        }
+    }
+
+    protected void deactivate(ComponentContext componentContext) {
+        if (mbeanRegistration != null) {
+            mbeanRegistration.unregister();
+            mbeanRegistration = null;
+        }
+    }
+}
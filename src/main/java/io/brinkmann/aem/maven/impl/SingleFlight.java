@@ -0,0 +1,63 @@
+package io.brinkmann.aem.maven.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent executions of the same task: the first caller for a key runs the task, callers arriving
+ * while it's in flight wait for and share its result. Results aren't kept once the task completed.
+ *
+ * @param <K> key identifying the task, e.g. the bundle revision
+ * @param <V> result of the task
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> tasksInFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    public V execute(K key, Callable<V> task) throws IOException {
+        FutureTask<V> futureTask = new FutureTask<>(task);
+        FutureTask<V> taskInFlight = tasksInFlight.putIfAbsent(key, futureTask);
+        if (taskInFlight == null) {
+            try {
+                futureTask.run();
+            } finally {
+                tasksInFlight.remove(key, futureTask);
+            }
+            taskInFlight = futureTask;
+        } else {
+            coalescedCalls.incrementAndGet();
+        }
+
+        try {
+            return taskInFlight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for [" + key + "]");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return number of calls which joined a task already in flight instead of running it
+     */
+    public long getCoalescedCalls() {
+        return coalescedCalls.get();
+    }
+}
@@ -0,0 +1,163 @@
+package io.brinkmann.aem.maven.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal POSIX tar writer streaming regular files. Names which don't fit into the ustar name and prefix fields
+ * are written as pax extended header, sizes are limited to 8GB.
+ */
+public class TarArchiveWriter {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final int NAME_LENGTH = 100;
+
+    private static final int PREFIX_LENGTH = 155;
+
+    private static final long MAX_SIZE = 077777777777L;
+
+    private static final byte TYPE_FILE = '0';
+
+    private static final byte TYPE_PAX_HEADER = 'x';
+
+    private static final String PAX_HEADER_NAME = "././@PaxHeader";
+
+    private final OutputStream output;
+
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    private final byte[] padding = new byte[BLOCK_SIZE];
+
+    private int entryPadding;
+
+    public TarArchiveWriter(OutputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Writes an entry with the given content.
+     */
+    public void putEntry(String name, long time, byte[] data, int length) throws IOException {
+        putEntryHeader(name, time, length);
+        output.write(data, 0, length);
+        closeEntry();
+    }
+
+    /**
+     * Writes the header of a regular file, the caller writes exactly <code>size</code> bytes through
+     * {@link #getEntryOutput()} and calls {@link #closeEntry()} afterwards.
+     */
+    public void putEntryHeader(String name, long time, long size) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException("Entry [" + name + "] exceeds the tar size limit");
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int prefixEnd = findPrefixEnd(nameBytes);
+        if (prefixEnd == -1) {
+            writePaxHeader(name, time);
+            writeHeader(Arrays.copyOf(nameBytes, NAME_LENGTH), null, time, size, TYPE_FILE);
+        } else if (prefixEnd == 0) {
+            writeHeader(nameBytes, null, time, size, TYPE_FILE);
+        } else {
+            writeHeader(Arrays.copyOfRange(nameBytes, prefixEnd + 1, nameBytes.length), Arrays.copyOf(nameBytes, prefixEnd), time, size, TYPE_FILE);
+        }
+
+        entryPadding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+    }
+
+    /**
+     * @return the underlying stream for writing the data announced by {@link #putEntryHeader}
+     */
+    public OutputStream getEntryOutput() {
+        return output;
+    }
+
+    /**
+     * Pads the data of the current entry to a full block.
+     */
+    public void closeEntry() throws IOException {
+        output.write(padding, 0, entryPadding);
+        entryPadding = 0;
+    }
+
+    /**
+     * Writes the end of archive marker, the underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        output.write(padding);
+        output.write(padding);
+        output.flush();
+    }
+
+    /**
+     * @return 0 in case the name fits into the name field, the position of the slash splitting it into prefix and
+     * name or -1 in case it has to be written as pax header
+     */
+    private static int findPrefixEnd(byte[] nameBytes) {
+        if (nameBytes.length <= NAME_LENGTH) {
+            return 0;
+        }
+        for (int i = Math.min(nameBytes.length - 1, PREFIX_LENGTH); i > 0; i--) {
+            if (nameBytes[i] == '/' && nameBytes.length - i - 1 <= NAME_LENGTH) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void writePaxHeader(String name, long time) throws IOException {
+        String record = " path=" + name + "\n";
+        int length = record.getBytes(StandardCharsets.UTF_8).length;
+        int recordLength = length + String.valueOf(length).length();
+        if (String.valueOf(recordLength).length() != String.valueOf(length).length()) {
+            recordLength++;
+        }
+        byte[] paxData = (recordLength + record).getBytes(StandardCharsets.UTF_8);
+
+        writeHeader(PAX_HEADER_NAME.getBytes(StandardCharsets.UTF_8), null, time, paxData.length, TYPE_PAX_HEADER);
+        output.write(paxData);
+        entryPadding = (BLOCK_SIZE - paxData.length % BLOCK_SIZE) % BLOCK_SIZE;
+        closeEntry();
+    }
+
+    private void writeHeader(byte[] name, byte[] prefix, long time, long size, byte type) throws IOException {
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(name, 0, header, 0, Math.min(name.length, NAME_LENGTH));
+        putOctal(0644, 100, 8);
+        putOctal(0, 108, 8);
+        putOctal(0, 116, 8);
+        putOctal(size, 124, 12);
+        putOctal(Math.max(0, time / 1000), 136, 12);
+        header[156] = type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        if (prefix != null) {
+            System.arraycopy(prefix, 0, header, 345, Math.min(prefix.length, PREFIX_LENGTH));
+        }
+
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte headerByte : header) {
+            checksum += headerByte & 0xff;
+        }
+        putOctal(checksum, 148, 7);
+        header[155] = ' ';
+        output.write(header);
+    }
+
+    /**
+     * Writes the value as zero padded octal number terminated by a NUL byte.
+     */
+    private void putOctal(long value, int offset, int length) {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int octalIndex = octal.length() - digits + i;
+            header[offset + i] = (byte) (octalIndex >= 0 ? octal.charAt(octalIndex) : '0');
+        }
+        header[offset + digits] = 0;
+    }
+}
@@ -0,0 +1,224 @@
+package io.brinkmann.aem.maven.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Minimal zip file writer which takes the entry data already compressed. In contrast to
+ * {@link java.util.zip.ZipOutputStream} the entries can therefore be deflated in parallel and written in order afterwards.
+ * The entry names are written UTF-8 encoded. ZIP64 isn't supported, an archive with more than 65535 entries or
+ * beyond 4 GB fails with an {@link IOException} before any record with truncated sizes or offsets is written.
+ */
+public class ZipArchiveWriter {
+
+    public static final int METHOD_STORED = 0;
+
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int VERSION = 20;
+
+    private static final int FLAG_UTF8_NAMES = 0x0800;
+
+    private static final int DIRECTORY_ATTRIBUTE = 0x10;
+
+    private static final long MAX_SIZE = 0xffffffffL;
+
+    private static final int MAX_ENTRIES = 0xffff;
+
+    private final OutputStream output;
+
+    private final List<CentralDirectoryEntry> centralDirectory = new ArrayList<>();
+
+    private static final int CENTRAL_DIRECTORY_HEADER_LENGTH = 46;
+
+    private final byte[] header = new byte[CENTRAL_DIRECTORY_HEADER_LENGTH];
+
+    private long position;
+
+    private long lastTime = Long.MIN_VALUE;
+
+    private int lastDosTime;
+
+    public ZipArchiveWriter(OutputStream output) {
+        this.output = output;
+    }
+
+    /**
+     * Writes an entry whose data is already compressed with the given method.
+     *
+     * @param name             entry name, directories end with a slash
+     * @param time             modification time in milliseconds
+     * @param method           {@link #METHOD_STORED} or {@link #METHOD_DEFLATED}
+     * @param crc              CRC-32 of the uncompressed data
+     * @param uncompressedSize size of the uncompressed data
+     * @param data             compressed data
+     * @param length           number of bytes in data
+     */
+    public void putEntry(String name, long time, int method, long crc, long uncompressedSize, byte[] data, int length) throws IOException {
+        putEntryHeader(name, time, method, crc, uncompressedSize, length);
+        output.write(data, 0, length);
+    }
+
+    /**
+     * Writes the header of an entry, the caller writes exactly <code>compressedSize</code> bytes of data afterwards
+     * through {@link #getEntryOutput()}.
+     */
+    public void putEntryHeader(String name, long time, int method, long crc, long uncompressedSize, long compressedSize) throws IOException {
+        if (centralDirectory.size() >= MAX_ENTRIES) {
+            throw new IOException("Archive has more than [" + MAX_ENTRIES + "] entries, ZIP64 isn't supported");
+        }
+        if (position > MAX_SIZE || compressedSize > MAX_SIZE || uncompressedSize > MAX_SIZE) {
+            throw new IOException("Archive exceeds 4 GB at entry [" + name + "], ZIP64 isn't supported");
+        }
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (time != lastTime) {
+            lastTime = time;
+            lastDosTime = toDosTime(time);
+        }
+        int dosTime = lastDosTime;
+
+        CentralDirectoryEntry entry = new CentralDirectoryEntry(nameBytes, dosTime, method, crc, compressedSize, uncompressedSize, position, name.endsWith("/"));
+        centralDirectory.add(entry);
+
+        int offset = 0;
+        offset = putInt(header, offset, LOCAL_FILE_HEADER_SIGNATURE);
+        offset = putShort(header, offset, VERSION);
+        offset = putShort(header, offset, FLAG_UTF8_NAMES);
+        offset = putShort(header, offset, method);
+        offset = putInt(header, offset, dosTime);
+        offset = putInt(header, offset, (int) crc);
+        offset = putInt(header, offset, (int) compressedSize);
+        offset = putInt(header, offset, (int) uncompressedSize);
+        offset = putShort(header, offset, nameBytes.length);
+        offset = putShort(header, offset, 0);
+        output.write(header, 0, offset);
+        output.write(nameBytes);
+        position += offset + nameBytes.length + compressedSize;
+    }
+
+    /**
+     * @return the underlying stream for writing the data announced by {@link #putEntryHeader}
+     */
+    public OutputStream getEntryOutput() {
+        return output;
+    }
+
+    /**
+     * Writes the central directory, the underlying stream is flushed but not closed.
+     */
+    public void finish() throws IOException {
+        long centralDirectoryOffset = position;
+        long centralDirectorySize = 0;
+        for (CentralDirectoryEntry entry : centralDirectory) {
+            centralDirectorySize += CENTRAL_DIRECTORY_HEADER_LENGTH + entry.name.length;
+        }
+        if (centralDirectoryOffset > MAX_SIZE || centralDirectorySize > MAX_SIZE) {
+            throw new IOException("Archive exceeds 4 GB, ZIP64 isn't supported");
+        }
+
+        for (CentralDirectoryEntry entry : centralDirectory) {
+            int offset = 0;
+            offset = putInt(header, offset, CENTRAL_DIRECTORY_SIGNATURE);
+            offset = putShort(header, offset, VERSION);
+            offset = putShort(header, offset, VERSION);
+            offset = putShort(header, offset, FLAG_UTF8_NAMES);
+            offset = putShort(header, offset, entry.method);
+            offset = putInt(header, offset, entry.dosTime);
+            offset = putInt(header, offset, (int) entry.crc);
+            offset = putInt(header, offset, (int) entry.compressedSize);
+            offset = putInt(header, offset, (int) entry.uncompressedSize);
+            offset = putShort(header, offset, entry.name.length);
+            offset = putShort(header, offset, 0);
+            offset = putShort(header, offset, 0);
+            offset = putShort(header, offset, 0);
+            offset = putShort(header, offset, 0);
+            offset = putInt(header, offset, entry.directory ? DIRECTORY_ATTRIBUTE : 0);
+            offset = putInt(header, offset, (int) entry.localHeaderOffset);
+            output.write(header, 0, offset);
+            output.write(entry.name);
+        }
+
+        int offset = 0;
+        offset = putInt(header, offset, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        offset = putShort(header, offset, 0);
+        offset = putShort(header, offset, 0);
+        offset = putShort(header, offset, centralDirectory.size());
+        offset = putShort(header, offset, centralDirectory.size());
+        offset = putInt(header, offset, (int) centralDirectorySize);
+        offset = putInt(header, offset, (int) centralDirectoryOffset);
+        offset = putShort(header, offset, 0);
+        output.write(header, 0, offset);
+        position += centralDirectorySize + offset;
+        output.flush();
+    }
+
+    private static int putShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        return offset + 2;
+    }
+
+    private static int putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+        return offset + 4;
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class CentralDirectoryEntry {
+
+        private final byte[] name;
+
+        private final int dosTime;
+
+        private final int method;
+
+        private final long crc;
+
+        private final long compressedSize;
+
+        private final long uncompressedSize;
+
+        private final long localHeaderOffset;
+
+        private final boolean directory;
+
+        private CentralDirectoryEntry(byte[] name, int dosTime, int method, long crc, long compressedSize, long uncompressedSize, long localHeaderOffset, boolean directory) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+            this.directory = directory;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.brinkmann.aem.maven.model;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex encoded checksums of a repository file, as expected by Maven in the <code>.sha1</code>, <code>.md5</code>,
+ * <code>.sha256</code> and <code>.sha512</code> files next to the artifact.
+ */
+public class ArtifactChecksums {
+
+    public static final String[] ALGORITHMS = {"SHA-1", "MD5", "SHA-256", "SHA-512"};
+
+    private static final String[] EXTENSIONS = {"sha1", "md5", "sha256", "sha512"};
+
+    private static final int[] HEX_LENGTHS = {40, 32, 64, 128};
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String[] checksums;
+
+    /**
+     * @param digests digests in the order of {@link #ALGORITHMS}, the digests are completed by this call
+     */
+    public ArtifactChecksums(MessageDigest[] digests) {
+        checksums = new String[EXTENSIONS.length];
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            checksums[i] = toHex(digests[i].digest());
+        }
+    }
+
+    public static MessageDigest[] createDigests() {
+        MessageDigest[] digests = new MessageDigest[ALGORITHMS.length];
+        try {
+            for (int i = 0; i < ALGORITHMS.length; i++) {
+                digests[i] = MessageDigest.getInstance(ALGORITHMS[i]);
+            }
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Checksum algorithm not supported by the JVM", ex);
+        }
+        return digests;
+    }
+
+    public static ArtifactChecksums of(byte[] content) {
+        MessageDigest[] digests = createDigests();
+        for (MessageDigest digest : digests) {
+            digest.update(content);
+        }
+        return new ArtifactChecksums(digests);
+    }
+
+    /**
+     * @return true in case the file extension names one of the supported checksum files
+     */
+    public static boolean isChecksumExtension(String fileExtension) {
+        return indexOfExtension(fileExtension) >= 0;
+    }
+
+    /**
+     * @return number of hex digits of the checksum named by the file extension, -1 if it's not a supported checksum
+     */
+    public static int getChecksumLength(String fileExtension) {
+        int index = indexOfExtension(fileExtension);
+        return index >= 0 ? HEX_LENGTHS[index] : -1;
+    }
+
+    /**
+     * @param fileExtension checksum file extension, e.g. <code>sha1</code>
+     * @return the hex encoded checksum, null if the extension isn't a supported checksum
+     */
+    public String getChecksum(String fileExtension) {
+        int index = indexOfExtension(fileExtension);
+        return index >= 0 ? checksums[index] : null;
+    }
+
+    public String getSha1() {
+        return checksums[0];
+    }
+
+    private static int indexOfExtension(String fileExtension) {
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            if (EXTENSIONS[i].equals(fileExtension)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,29 @@
+package io.brinkmann.aem.maven.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Entry of the dependency list for a bundle which isn't exported as artifact, it's only written as comment into the
+ * POM and shares the empty coordinates and version of all comments. It extends {@link ArtifactInformation} so the
+ * comments keep their place in the sorted dependency list, code telling comments and artifacts apart checks for this
+ * type instead of the missing bundle or coordinates.
+ */
+public class ArtifactComment extends ArtifactInformation {
+
+    public ArtifactComment(String artifactComment) {
+        super("", "", "", artifactComment, null);
+    }
+
+    /**
+     * Writes the comment only, there are no coordinates to depend on.
+     */
+    @Override
+    public void writeDependencyPomFragment(Writer dependenciesPomFragment, boolean scopeProvided, String outputPrefix) throws IOException {
+        if (StringUtils.isNotEmpty(getArtifactComment())) {
+            dependenciesPomFragment.write(StringUtils.defaultString(outputPrefix) + "<!-- " + getArtifactComment() + " -->\n");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io.brinkmann.aem.maven.model;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the artifacts provided by the bundles running in Apache Felix.
+ * Besides the sorted dependency list it holds a hash index by group id, artifact id and version
+ * and a trie of the repository layout (group id segments, artifact id, version) which resolves
+ * a request path in a single pass. The <code>maven-metadata.xml</code> of each artifact id directory is
+ * rendered along with the index.
+ */
+public class ArtifactIndex {
+
+    private static final String MAVEN_METADATA_FILE_NAME = "maven-metadata.xml";
+
+    private final long generation;
+
+    private final Set<ArtifactInformation> dependencies;
+
+    private final Map<String, ArtifactInformation> artifactsByIdentifier = new HashMap<>();
+
+    private final PathNode rootNode = new PathNode();
+
+    private final Map<String, ArtifactMetadata> metadataByArtifact = new HashMap<>();
+
+    public ArtifactIndex(long generation, Set<ArtifactInformation> dependencies) {
+        this.generation = generation;
+        this.dependencies = Collections.unmodifiableSet(dependencies);
+
+        Map<PathNode, List<ArtifactInformation>> artifactVersions = new HashMap<>();
+        for (ArtifactInformation dependency : dependencies) {
+            if (dependency.isEmpty()) {
+                continue;
+            }
+            artifactsByIdentifier.put(dependency.getArtifactIdentifier(), dependency);
+
+            PathNode node = rootNode;
+            for (String groupIdSegment : StringUtils.split(dependency.getGroupId(), '.')) {
+                node = node.getOrCreateChild(groupIdSegment);
+            }
+            node = node.getOrCreateChild(dependency.getArtifactId());
+            List<ArtifactInformation> versions = artifactVersions.get(node);
+            if (versions == null) {
+                versions = new ArrayList<>();
+                artifactVersions.put(node, versions);
+            }
+            versions.add(dependency);
+            node = node.getOrCreateChild(dependency.getVersion());
+            node.artifact = dependency;
+        }
+
+        for (Map.Entry<PathNode, List<ArtifactInformation>> entry : artifactVersions.entrySet()) {
+            ArtifactInformation artifact = entry.getValue().get(0);
+            ArtifactMetadata metadata = new ArtifactMetadata(artifact.getGroupId(), artifact.getArtifactId(), entry.getValue());
+            entry.getKey().metadata = metadata;
+            metadataByArtifact.put(artifact.getGroupId() + ":" + artifact.getArtifactId(), metadata);
+        }
+    }
+
+    /**
+     * @return number which is increased with every rebuild of the index
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public Set<ArtifactInformation> getDependencies() {
+        return dependencies;
+    }
+
+    public ArtifactInformation getArtifact(String groupId, String artifactId, String version) {
+        return artifactsByIdentifier.get(groupId + ":" + artifactId + ":" + version);
+    }
+
+    /**
+     * @return the metadata listing the versions of the artifact, null in case the index doesn't contain it
+     */
+    public ArtifactMetadata getArtifactMetadata(String groupId, String artifactId) {
+        return metadataByArtifact.get(groupId + ":" + artifactId);
+    }
+
+    /**
+     * Walks the repository layout along the given path. Inside a version directory only the files of that version
+     * (<code>artifactId-version.*</code>) and its <code>maven-metadata.xml</code> are resolved, other names aren't
+     * found instead of being served as the files of the version.
+     *
+     * @param path   request path, e.g. <code>/bin/maven/repository/com/adobe/foo/1.0/foo-1.0.jar</code>
+     * @param offset position in the path where the repository layout starts
+     * @return the resolved path, never null
+     */
+    public RepositoryPath resolve(String path, int offset) {
+        PathNode node = rootNode;
+        int segmentStart = offset;
+        while (segmentStart < path.length() && path.charAt(segmentStart) == '/') {
+            segmentStart++;
+        }
+
+        while (segmentStart < path.length()) {
+            int segmentEnd = path.indexOf('/', segmentStart);
+            if (segmentEnd == -1) {
+                segmentEnd = path.length();
+            }
+            String segment = path.substring(segmentStart, segmentEnd);
+
+            PathNode childNode = node.children != null ? node.children.get(segment) : null;
+            if (childNode == null) {
+                boolean lastSegment = segmentEnd == path.length();
+                if (!lastSegment || node.artifact != null && !isVersionFileName(node.artifact, segment)) {
+                    return RepositoryPath.NOT_FOUND;
+                }
+                return RepositoryPath.file(node.artifact, node.metadata, segment);
+            }
+            node = childNode;
+            segmentStart = segmentEnd + 1;
+        }
+
+        return RepositoryPath.directory(node.artifact, node.metadata);
+    }
+
+    private static boolean isVersionFileName(ArtifactInformation artifact, String fileName) {
+        if (fileName.startsWith(MAVEN_METADATA_FILE_NAME)) {
+            return true;
+        }
+        String artifactId = artifact.getArtifactId();
+        String version = artifact.getVersion();
+        return fileName.length() > artifactId.length() + version.length() + 2
+                && fileName.startsWith(artifactId)
+                && fileName.charAt(artifactId.length()) == '-'
+                && fileName.startsWith(version, artifactId.length() + 1)
+                && fileName.charAt(artifactId.length() + version.length() + 1) == '.';
+    }
+
+    private static class PathNode {
+
+        private Map<String, PathNode> children;
+
+        private ArtifactInformation artifact;
+
+        private ArtifactMetadata metadata;
+
+        private PathNode getOrCreateChild(String segment) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            PathNode child = children.get(segment);
+            if (child == null) {
+                child = new PathNode();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+}
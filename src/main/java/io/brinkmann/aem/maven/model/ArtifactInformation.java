@@ -3,56 +3,78 @@ package io.brinkmann.aem.maven.model;
 import org.apache.commons.lang3.StringUtils;
 import org.osgi.framework.Bundle;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 
 
 /**
+ * Immutable artifact of the dependency list. Group id and artifact id are interned, the hash code is computed once
+ * and the entries are compared field by field as if their identifiers were concatenated, without building strings.
+ *
  * Created by sbrinkmann on 14.02.16.
  */
 public class ArtifactInformation implements Comparable<ArtifactInformation> {
 
-    private String groupId = "";
+    private final String groupId;
 
-    private String artifactId = "";
+    private final String artifactId;
 
-    private String version = "";
+    private final String version;
 
-    private MavenVersion mavenVersion = new MavenVersion();
+    private final MavenVersion mavenVersion;
 
-    private String artifactComment = "";
+    private final String artifactComment;
 
-    private Bundle associatedBundle;
+    private final Bundle associatedBundle;
 
-    public ArtifactInformation() {
+    /**
+     * Entries without group id and artifact id are compared by their comment.
+     */
+    private final boolean empty;
+
+    private final int hash;
 
+    private volatile RenderedDocument pomDocument;
+
+    private volatile RenderedDocument mavenMetadataDocument;
+
+    public ArtifactInformation() {
+        this("", "", "", "", null);
     }
 
+    /**
+     * @deprecated use {@link ArtifactComment} for entries which only consist of a comment
+     */
+    @Deprecated
     public ArtifactInformation(String artifactComment) {
-        this.artifactComment = artifactComment;
+        this("", "", "", artifactComment, null);
     }
 
     public ArtifactInformation(String groupId, String artifactId, String version) {
-        this.groupId = groupId;
-        this.artifactId = artifactId;
-        this.version = version;
-        this.mavenVersion = new MavenVersion(version);
+        this(groupId, artifactId, version, "", null);
     }
 
     public ArtifactInformation(String groupId, String artifactId, String version, String artifactComment) {
-        this(groupId, artifactId, version);
-        this.artifactComment = artifactComment;
+        this(groupId, artifactId, version, artifactComment, null);
     }
 
     public ArtifactInformation(String groupId, String artifactId, String version, String artifactComment, Bundle associatedBundle) {
-        this(groupId, artifactId, version, artifactComment);
+        this.groupId = StringUtils.defaultString(groupId).intern();
+        this.artifactId = StringUtils.defaultString(artifactId).intern();
+        this.version = StringUtils.defaultString(version);
+        this.mavenVersion = MavenVersion.valueOf(this.version);
+        this.artifactComment = StringUtils.defaultString(artifactComment);
         this.associatedBundle = associatedBundle;
+        this.empty = this.groupId.isEmpty() && this.artifactId.isEmpty();
+        this.hash = computeHash();
     }
 
     /**
      * @return true
      */
     public boolean isEmpty() {
-        return StringUtils.isEmpty(groupId) && StringUtils.isEmpty(artifactId);
+        return empty;
     }
 
     public String getArtifactIdentifier() {
@@ -63,35 +85,35 @@ public class ArtifactInformation implements Comparable<ArtifactInformation> {
         return groupId;
     }
 
-    public void setGroupId(String groupId) {
-        this.groupId = groupId;
-    }
-
     public String getArtifactId() {
         return artifactId;
     }
 
-    public void setArtifactId(String artifactId) {
-        this.artifactId = artifactId;
-    }
-
     public String getVersion() {
         return version;
     }
 
-    public void setVersion(String version) {
-        this.version = version;
-        this.mavenVersion = new MavenVersion(version);
-    }
-
     public MavenVersion getMavenVersion() {
         return mavenVersion;
     }
 
+    public String getArtifactComment() {
+        return artifactComment;
+    }
+
     public String getDependencyPomFragment(boolean scopeProvided, String outputPrefix) {
+        StringWriter dependenciesPomFragment = new StringWriter();
+        try {
+            writeDependencyPomFragment(dependenciesPomFragment, scopeProvided, outputPrefix);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return dependenciesPomFragment.toString();
+    }
+
+    public void writeDependencyPomFragment(Writer dependenciesPomFragment, boolean scopeProvided, String outputPrefix) throws IOException {
         outputPrefix = StringUtils.isNotEmpty(outputPrefix) ? outputPrefix : "";
 
-        StringWriter dependenciesPomFragment = new StringWriter();
         if (StringUtils.isNotEmpty(artifactComment)) {
             dependenciesPomFragment.write(outputPrefix + "<!-- " + artifactComment + " -->\n");
         }
@@ -107,7 +129,30 @@ public class ArtifactInformation implements Comparable<ArtifactInformation> {
             }
             dependenciesPomFragment.write(outputPrefix + "</dependency>\n");
         }
-        return dependenciesPomFragment.toString();
+    }
+
+    /**
+     * @return the POM of the artifact, rendered on first use and kept since it only depends on the coordinates
+     */
+    public RenderedDocument getPomDocument() {
+        RenderedDocument document = pomDocument;
+        if (document == null) {
+            document = RenderedDocument.of(getPomFile());
+            pomDocument = document;
+        }
+        return document;
+    }
+
+    /**
+     * @return the <code>maven-metadata.xml</code> of the version directory, rendered on first use and kept
+     */
+    public RenderedDocument getMavenMetadataDocument() {
+        RenderedDocument document = mavenMetadataDocument;
+        if (document == null) {
+            document = RenderedDocument.of(getMavenMetadata());
+            mavenMetadataDocument = document;
+        }
+        return document;
     }
 
     public String getPomFile() {
@@ -144,47 +189,92 @@ public class ArtifactInformation implements Comparable<ArtifactInformation> {
         return associatedBundle;
     }
 
-    public void setAssociatedBundle(Bundle associatedBundle) {
-        this.associatedBundle = associatedBundle;
-    }
-
     public boolean isArtifactAndGroupIdEqual(ArtifactInformation otherArtifactInformation) {
-        boolean isArtifactAndGroupIdEqual = otherArtifactInformation != null;
-        isArtifactAndGroupIdEqual &= StringUtils.isNotEmpty(this.getGroupId());
-        isArtifactAndGroupIdEqual &= this.getGroupId().equals(otherArtifactInformation.getGroupId());
-        isArtifactAndGroupIdEqual &= this.getGroupId().equals(otherArtifactInformation.getGroupId());
-        isArtifactAndGroupIdEqual &= StringUtils.isNotEmpty(this.getArtifactId());
-        isArtifactAndGroupIdEqual &= this.getArtifactId().equals(otherArtifactInformation.getArtifactId());
-        return isArtifactAndGroupIdEqual;
+        return otherArtifactInformation != null && !empty
+                && StringUtils.isNotEmpty(groupId) && groupId.equals(otherArtifactInformation.groupId)
+                && StringUtils.isNotEmpty(artifactId) && artifactId.equals(otherArtifactInformation.artifactId);
     }
 
     @Override
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if (obj instanceof ArtifactInformation) {
-            ArtifactInformation otherArtifactInformation = (ArtifactInformation) obj;
-            isEqual = getCompareAbleValue().equals(otherArtifactInformation.getCompareAbleValue());
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ArtifactInformation)) {
+            return false;
         }
-        return isEqual;
+        ArtifactInformation otherArtifactInformation = (ArtifactInformation) obj;
+        return hash == otherArtifactInformation.hash && compareTo(otherArtifactInformation) == 0;
     }
 
     @Override
     public int hashCode() {
-        return getCompareAbleValue().hashCode();
+        return hash;
     }
 
-    private String getCompareAbleValue() {
-        if (!isEmpty()) {
-            return getArtifactIdentifier();
-        } else if (StringUtils.isNotEmpty(artifactComment)) {
-            return artifactComment;
+    /**
+     * Same hash as the one of the compared value, group id, artifact id and version joined by colons or the comment.
+     */
+    private int computeHash() {
+        int computedHash = 0;
+        for (int i = 0, length = getCompareAbleLength(); i < length; i++) {
+            computedHash = 31 * computedHash + getCompareAbleChar(i);
         }
+        return computedHash;
+    }
+
+    private int getCompareAbleLength() {
+        return empty ? artifactComment.length() : groupId.length() + artifactId.length() + version.length() + 2;
+    }
 
-        throw new RuntimeException("This reference has no compareable value");
+    /**
+     * @return the character at the position of the compared value without building it
+     */
+    private char getCompareAbleChar(int position) {
+        if (empty) {
+            return artifactComment.charAt(position);
+        }
+        if (position < groupId.length()) {
+            return groupId.charAt(position);
+        }
+        position -= groupId.length();
+        if (position == 0) {
+            return ':';
+        }
+        position--;
+        if (position < artifactId.length()) {
+            return artifactId.charAt(position);
+        }
+        position -= artifactId.length();
+        if (position == 0) {
+            return ':';
+        }
+        return version.charAt(position - 1);
     }
 
     public int compareTo(ArtifactInformation otherArtifactInformation) {
-        int compareResult = getCompareAbleValue().compareTo(otherArtifactInformation.getCompareAbleValue());
-        return compareResult;
+        if (this == otherArtifactInformation) {
+            return 0;
+        }
+
+        int position = 0;
+        if (!empty && !otherArtifactInformation.empty && groupId == otherArtifactInformation.groupId) {
+            // interned, the common group id and the colon can be skipped
+            if (artifactId == otherArtifactInformation.artifactId) {
+                return version.compareTo(otherArtifactInformation.version);
+            }
+            position = groupId.length() + 1;
+        }
+
+        int length = getCompareAbleLength();
+        int otherLength = otherArtifactInformation.getCompareAbleLength();
+        for (int commonLength = Math.min(length, otherLength); position < commonLength; position++) {
+            char character = getCompareAbleChar(position);
+            char otherCharacter = otherArtifactInformation.getCompareAbleChar(position);
+            if (character != otherCharacter) {
+                return character - otherCharacter;
+            }
+        }
+        return length - otherLength;
     }
 }
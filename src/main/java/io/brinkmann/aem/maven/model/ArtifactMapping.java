@@ -10,7 +10,7 @@ import java.util.regex.Pattern;
 /**
  * Created by sbrinkmann on 14.02.16.
  */
-public class ArtifactMapping extends ArtifactInformation {
+public class ArtifactMapping {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactMapping.class);
 
@@ -18,6 +18,12 @@ public class ArtifactMapping extends ArtifactInformation {
 
     private String bundleSymbolicName;
 
+    private String groupId;
+
+    private String artifactId;
+
+    private String version;
+
     public String getBundleSymbolicName() {
         return bundleSymbolicName;
     }
@@ -26,6 +32,18 @@ public class ArtifactMapping extends ArtifactInformation {
         this.bundleSymbolicName = bundleSymbolicName;
     }
 
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
     public static ArtifactMapping parseMappingFromOsgiConfig(String osgiConfigString) {
         ArtifactMapping parsedArtifactMapping = null;
 
@@ -34,9 +52,9 @@ public class ArtifactMapping extends ArtifactInformation {
             if (osgiConfigParameters.matches()) {
                 parsedArtifactMapping = new ArtifactMapping();
                 parsedArtifactMapping.bundleSymbolicName = osgiConfigParameters.group(1);
-                parsedArtifactMapping.setGroupId(osgiConfigParameters.group(2));
-                parsedArtifactMapping.setArtifactId(osgiConfigParameters.group(3));
-                parsedArtifactMapping.setVersion(osgiConfigParameters.group(4));
+                parsedArtifactMapping.groupId = osgiConfigParameters.group(2);
+                parsedArtifactMapping.artifactId = osgiConfigParameters.group(3);
+                parsedArtifactMapping.version = osgiConfigParameters.group(4);
             } else {
                 LOGGER.warn("OSGi config string doesn't match: " + osgiConfigString);
             }
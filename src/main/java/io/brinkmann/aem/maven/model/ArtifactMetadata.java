@@ -0,0 +1,139 @@
+package io.brinkmann.aem.maven.model;
+
+import org.osgi.framework.Bundle;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * The <code>maven-metadata.xml</code> of an artifact id directory, listing all versions of the artifact in the index.
+ * The document and its checksums are rendered once when the index is built.
+ */
+public class ArtifactMetadata {
+
+    private static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
+
+    private static final String LAST_UPDATED_FORMAT = "yyyyMMddHHmmss";
+
+    private static final Comparator<ArtifactInformation> VERSION_ORDER = new Comparator<ArtifactInformation>() {
+        @Override
+        public int compare(ArtifactInformation artifact, ArtifactInformation otherArtifact) {
+            return artifact.getMavenVersion().compareTo(otherArtifact.getMavenVersion());
+        }
+    };
+
+    private final List<String> versions;
+
+    private final String latest;
+
+    private final String release;
+
+    private final long lastModified;
+
+    private final RenderedDocument document;
+
+    private final ArtifactChecksums checksums;
+
+    /**
+     * @param artifacts all versions of one group id and artifact id
+     */
+    public ArtifactMetadata(String groupId, String artifactId, List<ArtifactInformation> artifacts) {
+        List<ArtifactInformation> sortedArtifacts = new ArrayList<>(artifacts);
+        Collections.sort(sortedArtifacts, VERSION_ORDER);
+
+        Set<String> sortedVersions = new LinkedHashSet<>();
+        String latestVersion = null;
+        String releaseVersion = null;
+        long lastBundleModification = 0;
+        for (ArtifactInformation artifact : sortedArtifacts) {
+            sortedVersions.add(artifact.getVersion());
+            latestVersion = artifact.getVersion();
+            if (!artifact.getVersion().endsWith(SNAPSHOT_SUFFIX)) {
+                releaseVersion = artifact.getVersion();
+            }
+            Bundle bundle = artifact.getAssociatedBundle();
+            if (bundle != null) {
+                lastBundleModification = Math.max(lastBundleModification, bundle.getLastModified());
+            }
+        }
+
+        this.versions = Collections.unmodifiableList(new ArrayList<>(sortedVersions));
+        this.latest = latestVersion;
+        this.release = releaseVersion;
+        this.lastModified = lastBundleModification;
+        this.document = RenderedDocument.of(renderDocument(groupId, artifactId));
+        this.checksums = document.getChecksums();
+    }
+
+    private String renderDocument(String groupId, String artifactId) {
+        StringBuilder metadata = new StringBuilder(256 + versions.size() * 48);
+        metadata.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        metadata.append("<metadata>\n");
+        metadata.append("  <groupId>").append(groupId).append("</groupId>\n");
+        metadata.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+        metadata.append("  <versioning>\n");
+        if (latest != null) {
+            metadata.append("    <latest>").append(latest).append("</latest>\n");
+        }
+        if (release != null) {
+            metadata.append("    <release>").append(release).append("</release>\n");
+        }
+        metadata.append("    <versions>\n");
+        for (String version : versions) {
+            metadata.append("      <version>").append(version).append("</version>\n");
+        }
+        metadata.append("    </versions>\n");
+        if (lastModified > 0) {
+            metadata.append("    <lastUpdated>").append(formatLastUpdated(lastModified)).append("</lastUpdated>\n");
+        }
+        metadata.append("  </versioning>\n");
+        metadata.append("</metadata>\n");
+        return metadata.toString();
+    }
+
+    private static String formatLastUpdated(long time) {
+        SimpleDateFormat format = new SimpleDateFormat(LAST_UPDATED_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    /**
+     * @return versions in ascending Maven order
+     */
+    public List<String> getVersions() {
+        return versions;
+    }
+
+    public String getLatest() {
+        return latest;
+    }
+
+    /**
+     * @return highest version which isn't a snapshot, null in case there are snapshots only
+     */
+    public String getRelease() {
+        return release;
+    }
+
+    /**
+     * @return latest modification time of the bundles providing the versions, 0 if none of them is known
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public RenderedDocument getDocument() {
+        return document;
+    }
+
+    public ArtifactChecksums getChecksums() {
+        return checksums;
+    }
+}
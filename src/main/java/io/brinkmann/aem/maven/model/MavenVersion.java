@@ -1,71 +1,283 @@
 package io.brinkmann.aem.maven.model;
 
-import org.apache.commons.lang3.StringUtils;
-
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * Splits up a maven version into the parts major, minor and fixlevel version.
- * This makes it possible to compare the _numbers_ with other MavenVersion instances.
+ * Parses a maven version and compares it with the ordering of <code>ComparableVersion</code> of Maven 3.9. A version
+ * consists of any number of numeric and qualifier items separated by dots, hyphens and transitions between digits
+ * and letters. Known qualifiers are ordered alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; release &lt; sp,
+ * unknown qualifiers like the ones of OSGi versions come after them in alphabetical order. Trailing zeros and
+ * release qualifiers are ignored, so 1.0 and 1.0.0 are equal while 1.0.0-SNAPSHOT &lt; 1.0.0 &lt; 1.0.0.R1234.
+ * <p>
  * In contrast to a pure string comparison of the version number, this class detects
  * correctly that a version 1.6 is smaller then the version 1.10
+ * <p>
+ * The items are parsed by a hand written tokenizer into a flat int array referencing the lower case version, so
+ * neither parsing nor comparing allocates more than that array. Instances are immutable and repeated versions are
+ * served from a cache by {@link #valueOf(String)}.
  *
  * Created by sbrinkmann on 10.03.16.
  */
 public class MavenVersion implements Comparable<MavenVersion> {
 
-    private Pattern versionNumberRegexPattern = Pattern.compile("(\\d+)(\\.{1}(\\d+)){0,1}(\\.{1}(\\d+)){0,1}.*");
+    private static final int MAX_CACHED_VERSIONS = 4096;
 
-    private String rawVersion;
+    private static final ConcurrentMap<String, MavenVersion> VERSION_CACHE = new ConcurrentHashMap<>();
 
-    private boolean hasVersion;
+    /**
+     * Item types, a list item starts a nested list which is the last item of the enclosing list and holds all following items.
+     */
+    private static final int NUMBER = 0;
 
-    private int majorVersion = 0;
+    private static final int QUALIFIER = 1;
 
-    private int minorVersion = 0;
+    private static final int LIST = 2;
 
-    private int fixVersion = 0;
+    /**
+     * Each item occupies type, start and end in the normalized version and the rank of a qualifier.
+     */
+    private static final int ITEM_SIZE = 4;
 
-    public MavenVersion() {
+    private static final int TYPE = 0;
+
+    private static final int START = 1;
+
+    private static final int END = 2;
+
+    private static final int RANK = 3;
+
+    private static final String[] QUALIFIERS = {"alpha", "beta", "milestone", "rc", "snapshot", "", "sp"};
+
+    private static final int RELEASE_RANK = 5;
+
+    private static final int UNKNOWN_QUALIFIER_RANK = QUALIFIERS.length;
+
+    private static final int[] NO_ITEMS = new int[0];
+
+    private static final MavenVersion NO_VERSION = new MavenVersion();
+
+    private final String rawVersion;
+
+    private final boolean hasVersion;
 
+    private final String normalizedVersion;
+
+    private final int[] items;
+
+    private final int majorVersion;
+
+    private final int minorVersion;
+
+    private final int fixVersion;
+
+    public MavenVersion() {
+        this(null);
     }
 
     public MavenVersion(String rawVersion) {
         this.rawVersion = rawVersion;
-        processVersioNumber();
+        this.hasVersion = rawVersion != null && !rawVersion.isEmpty();
+        this.normalizedVersion = hasVersion ? rawVersion.toLowerCase(Locale.ENGLISH) : "";
+        this.items = hasVersion ? parseItems(normalizedVersion) : NO_ITEMS;
+
+        this.majorVersion = getLeadingNumber(0);
+        this.minorVersion = getLeadingNumber(1);
+        this.fixVersion = getLeadingNumber(2);
     }
 
-    private void processVersioNumber() {
-        hasVersion = StringUtils.isNotEmpty(rawVersion);
+    /**
+     * @return the number at the position of the numbers the version starts with, 0 in case there is none
+     */
+    private int getLeadingNumber(int position) {
+        for (int item = 0; item < items.length && items[item + TYPE] == NUMBER; item += ITEM_SIZE, position--) {
+            if (position == 0) {
+                return toInt(normalizedVersion, items[item + START], items[item + END]);
+            }
+        }
+        return 0;
+    }
 
-        if (!hasVersion)
-            return;
+    /**
+     * @return the parsed version, repeated versions are parsed only once
+     */
+    public static MavenVersion valueOf(String rawVersion) {
+        if (rawVersion == null || rawVersion.isEmpty()) {
+            return NO_VERSION;
+        }
 
-        Matcher versionNumberMatcher = versionNumberRegexPattern.matcher(rawVersion);
+        MavenVersion mavenVersion = VERSION_CACHE.get(rawVersion);
+        if (mavenVersion == null) {
+            if (VERSION_CACHE.size() >= MAX_CACHED_VERSIONS) {
+                VERSION_CACHE.clear();
+            }
+            mavenVersion = new MavenVersion(rawVersion);
+            VERSION_CACHE.put(rawVersion, mavenVersion);
+        }
+        return mavenVersion;
+    }
+
+    /**
+     * Splits the version into items the same way <code>ComparableVersion</code> does and normalizes the lists
+     * afterwards by removing their trailing null items.
+     */
+    private static int[] parseItems(String version) {
+        int length = version.length();
+        int[] parsedItems = new int[(length * 3 + 2) * ITEM_SIZE];
+        int[] listStarts = new int[length * 2 + 3];
+        int lists = 1;
+        int size = 0;
 
-        if (versionNumberMatcher.matches()) {
-            if (versionNumberMatcher.groupCount() >= 1) {
-                String stringMajorVersion = versionNumberMatcher.group(1);
-                if (stringMajorVersion != null) {
-                    majorVersion = Integer.valueOf(stringMajorVersion);
+        boolean isDigit = false;
+        int startIndex = 0;
+        for (int i = 0; i < length; i++) {
+            char c = version.charAt(i);
+            if (c == '.' || c == '-') {
+                if (i == startIndex) {
+                    size = addItem(parsedItems, size, NUMBER, i, i, 0);
+                } else {
+                    size = addItem(parsedItems, size, version, isDigit, false, startIndex, i);
+                }
+                startIndex = i + 1;
+                if (c == '-') {
+                    size = addItem(parsedItems, size, LIST, i, i, 0);
+                    listStarts[lists++] = size;
+                }
+            } else if (c >= '0' && c <= '9') {
+                if (!isDigit && i > startIndex) {
+                    if (size > listStarts[lists - 1]) {
+                        size = addItem(parsedItems, size, LIST, i, i, 0);
+                        listStarts[lists++] = size;
+                    }
+                    size = addItem(parsedItems, size, version, false, true, startIndex, i);
+                    startIndex = i;
+                    size = addItem(parsedItems, size, LIST, i, i, 0);
+                    listStarts[lists++] = size;
+                }
+                isDigit = true;
+            } else {
+                if (isDigit && i > startIndex) {
+                    size = addItem(parsedItems, size, version, true, false, startIndex, i);
+                    startIndex = i;
+                    size = addItem(parsedItems, size, LIST, i, i, 0);
+                    listStarts[lists++] = size;
                 }
+                isDigit = false;
             }
+        }
+        if (length > startIndex) {
+            // a trailing qualifier is handled like one separated by a hyphen, 1.0.0.X1 < 1.0.0-X2
+            if (!isDigit && size > listStarts[lists - 1]) {
+                size = addItem(parsedItems, size, LIST, length, length, 0);
+                listStarts[lists++] = size;
+            }
+            size = addItem(parsedItems, size, version, isDigit, false, startIndex, length);
+        }
 
-            if (versionNumberMatcher.groupCount() >= 3) {
-                String stringMinorVersion = versionNumberMatcher.group(3);
-                if (stringMinorVersion != null) {
-                    minorVersion = Integer.valueOf(stringMinorVersion);
+        // innermost list first, removing items only moves the items behind the start of the list being normalized
+        for (int list = lists - 1; list >= 0; list--) {
+            int listStart = listStarts[list];
+            int listEnd = size;
+            if (list < lists - 1) {
+                int nestedListItem = listStarts[list + 1] - ITEM_SIZE;
+                if (nestedListItem + ITEM_SIZE == size) {
+                    // nested list became empty
+                    size = nestedListItem;
+                    listEnd = size;
+                } else {
+                    listEnd = nestedListItem;
                 }
             }
 
-            if (versionNumberMatcher.groupCount() >= 5) {
-                String stringFixVersion = versionNumberMatcher.group(5);
-                if (stringFixVersion != null) {
-                    fixVersion = Integer.valueOf(stringFixVersion);
-                }
+            int lastItem = listEnd;
+            while (lastItem > listStart && isNull(version, parsedItems, lastItem - ITEM_SIZE)) {
+                lastItem -= ITEM_SIZE;
+            }
+            if (lastItem < listEnd) {
+                System.arraycopy(parsedItems, listEnd, parsedItems, lastItem, size - listEnd);
+                size -= listEnd - lastItem;
+            }
+        }
+
+        return Arrays.copyOf(parsedItems, size);
+    }
+
+    private static int addItem(int[] parsedItems, int size, String version, boolean isDigit, boolean followedByDigit, int start, int end) {
+        if (isDigit) {
+            return addItem(parsedItems, size, NUMBER, start, end, 0);
+        }
+        return addItem(parsedItems, size, QUALIFIER, start, end, getQualifierRank(version, start, end, followedByDigit));
+    }
+
+    private static int addItem(int[] parsedItems, int size, int type, int start, int end, int rank) {
+        parsedItems[size + TYPE] = type;
+        parsedItems[size + START] = start;
+        parsedItems[size + END] = end;
+        parsedItems[size + RANK] = rank;
+        return size + ITEM_SIZE;
+    }
+
+    private static int getQualifierRank(String version, int start, int end, boolean followedByDigit) {
+        int length = end - start;
+        if (followedByDigit && length == 1) {
+            switch (version.charAt(start)) {
+                case 'a':
+                    return 0;
+                case 'b':
+                    return 1;
+                case 'm':
+                    return 2;
+                default:
+                    break;
+            }
+        }
+        if (regionEquals(version, start, end, "ga") || regionEquals(version, start, end, "final") || regionEquals(version, start, end, "release")) {
+            return RELEASE_RANK;
+        }
+        if (regionEquals(version, start, end, "cr")) {
+            return 3;
+        }
+        for (int rank = 0; rank < QUALIFIERS.length; rank++) {
+            if (regionEquals(version, start, end, QUALIFIERS[rank])) {
+                return rank;
+            }
+        }
+        return UNKNOWN_QUALIFIER_RANK;
+    }
+
+    private static boolean regionEquals(String version, int start, int end, String qualifier) {
+        return end - start == qualifier.length() && version.regionMatches(start, qualifier, 0, qualifier.length());
+    }
+
+    private static boolean isNull(String version, int[] parsedItems, int item) {
+        switch (parsedItems[item + TYPE]) {
+            case NUMBER:
+                return isZero(version, parsedItems[item + START], parsedItems[item + END]);
+            case QUALIFIER:
+                return parsedItems[item + RANK] == RELEASE_RANK;
+            default:
+                // nested lists are never empty after normalization
+                return false;
+        }
+    }
+
+    private static boolean isZero(String version, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (version.charAt(i) != '0') {
+                return false;
             }
         }
+        return true;
+    }
+
+    private static int toInt(String version, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end && value <= Integer.MAX_VALUE; i++) {
+            value = value * 10 + (version.charAt(i) - '0');
+        }
+        return (int) Math.min(value, Integer.MAX_VALUE);
     }
 
     public int getFixVersion() {
@@ -84,15 +296,129 @@ public class MavenVersion implements Comparable<MavenVersion> {
         return rawVersion;
     }
 
+    public boolean hasVersion() {
+        return hasVersion;
+    }
+
     @Override
     public int compareTo(MavenVersion otherMavenVersion) {
-        int result = this.majorVersion - otherMavenVersion.majorVersion;
-        if (result == 0) {
-            result = this.minorVersion - otherMavenVersion.minorVersion;
+        return compareLists(this, 0, otherMavenVersion, 0);
+    }
+
+    /**
+     * Compares two lists item by item, the missing items of the shorter list are compared as null items.
+     *
+     * @param item first item of the list, -1 or the end of the items in case the list is exhausted
+     */
+    private static int compareLists(MavenVersion left, int item, MavenVersion right, int otherItem) {
+        while (true) {
+            boolean leftExhausted = item < 0 || item >= left.items.length;
+            boolean rightExhausted = otherItem < 0 || otherItem >= right.items.length;
+            int result;
+            if (leftExhausted && rightExhausted) {
+                return 0;
+            } else if (leftExhausted) {
+                result = -compareToNull(right, otherItem);
+            } else if (rightExhausted) {
+                result = compareToNull(left, item);
+            } else {
+                result = compareItems(left, item, right, otherItem);
+            }
+            if (result != 0) {
+                return result;
+            }
+            item = nextItem(left, item);
+            otherItem = nextItem(right, otherItem);
         }
-        if (result == 0) {
-            result = this.fixVersion - otherMavenVersion.fixVersion;
+    }
+
+    private static int nextItem(MavenVersion version, int item) {
+        if (item < 0 || item >= version.items.length || version.items[item + TYPE] == LIST) {
+            return -1;
         }
-        return result;
+        return item + ITEM_SIZE;
+    }
+
+    private static int compareToNull(MavenVersion version, int item) {
+        int[] items = version.items;
+        switch (items[item + TYPE]) {
+            case NUMBER:
+                return isZero(version.normalizedVersion, items[item + START], items[item + END]) ? 0 : 1;
+            case QUALIFIER:
+                return Integer.compare(items[item + RANK], RELEASE_RANK);
+            default:
+                for (int nestedItem = item + ITEM_SIZE; nestedItem >= 0 && nestedItem < items.length; nestedItem = nextItem(version, nestedItem)) {
+                    int result = compareToNull(version, nestedItem);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return 0;
+        }
+    }
+
+    private static int compareItems(MavenVersion left, int item, MavenVersion right, int otherItem) {
+        int type = left.items[item + TYPE];
+        int otherType = right.items[otherItem + TYPE];
+        if (type != otherType) {
+            // numbers are greater than lists, lists are greater than qualifiers
+            return getTypeOrder(type) > getTypeOrder(otherType) ? 1 : -1;
+        }
+
+        switch (type) {
+            case NUMBER:
+                return compareNumbers(left.normalizedVersion, left.items[item + START], left.items[item + END],
+                        right.normalizedVersion, right.items[otherItem + START], right.items[otherItem + END]);
+            case QUALIFIER:
+                int result = Integer.compare(left.items[item + RANK], right.items[otherItem + RANK]);
+                if (result == 0 && left.items[item + RANK] == UNKNOWN_QUALIFIER_RANK) {
+                    result = compareStrings(left.normalizedVersion, left.items[item + START], left.items[item + END],
+                            right.normalizedVersion, right.items[otherItem + START], right.items[otherItem + END]);
+                }
+                return result;
+            default:
+                return compareLists(left, item + ITEM_SIZE, right, otherItem + ITEM_SIZE);
+        }
+    }
+
+    private static int getTypeOrder(int type) {
+        switch (type) {
+            case NUMBER:
+                return 2;
+            case LIST:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Compares numbers of any length by their digits, ignoring leading zeros.
+     */
+    private static int compareNumbers(String left, int start, int end, String right, int otherStart, int otherEnd) {
+        while (start < end && left.charAt(start) == '0') {
+            start++;
+        }
+        while (otherStart < otherEnd && right.charAt(otherStart) == '0') {
+            otherStart++;
+        }
+        int result = Integer.compare(end - start, otherEnd - otherStart);
+        return result != 0 ? result : compareStrings(left, start, end, right, otherStart, otherEnd);
+    }
+
+    private static int compareStrings(String left, int start, int end, String right, int otherStart, int otherEnd) {
+        int length = Math.min(end - start, otherEnd - otherStart);
+        for (int i = 0; i < length; i++) {
+            int result = left.charAt(start + i) - right.charAt(otherStart + i);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return (end - start) - (otherEnd - otherStart);
+    }
+
+    @Override
+    public String toString() {
+        return rawVersion;
     }
 }
@@ -10,6 +10,13 @@ public class Pom extends ArtifactInformation {
 
     Set<ArtifactInformation> dependencies = new TreeSet<ArtifactInformation>();
 
+    public Pom() {
+    }
+
+    public Pom(String groupId, String artifactId, String version) {
+        super(groupId, artifactId, version);
+    }
+
     public Set<ArtifactInformation> getDependencies() {
         return dependencies;
     }
@@ -0,0 +1,100 @@
+package io.brinkmann.aem.maven.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * UTF-8 encoded text document rendered once and served many times. The content must not be modified.
+ * Documents of a reasonable size are compressed when rendered, so gzip encoded responses cost no time per request.
+ * The checksums are computed on first use and kept with the document.
+ */
+public class RenderedDocument {
+
+    /**
+     * Smaller documents hardly shrink and are always sent uncompressed.
+     */
+    public static final int MIN_COMPRESSED_LENGTH = 512;
+
+    private final byte[] content;
+
+    private final byte[] gzippedContent;
+
+    private volatile ArtifactChecksums checksums;
+
+    public RenderedDocument(byte[] content) {
+        this.content = content;
+        this.gzippedContent = compress(content);
+    }
+
+    public static RenderedDocument of(String document) {
+        return new RenderedDocument(document.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the gzipped content, null in case the document is too small or doesn't shrink
+     */
+    private static byte[] compress(byte[] content) {
+        if (content.length < MIN_COMPRESSED_LENGTH) {
+            return null;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return compressed.size() < content.length ? compressed.toByteArray() : null;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public int getLength() {
+        return content.length;
+    }
+
+    public boolean hasGzippedContent() {
+        return gzippedContent != null;
+    }
+
+    public byte[] getGzippedContent() {
+        return gzippedContent;
+    }
+
+    /**
+     * @return length of the gzipped content, -1 in case there is none
+     */
+    public int getGzippedLength() {
+        return gzippedContent != null ? gzippedContent.length : -1;
+    }
+
+    /**
+     * @return the checksums of the uncompressed content
+     */
+    public ArtifactChecksums getChecksums() {
+        ArtifactChecksums documentChecksums = checksums;
+        if (documentChecksums == null) {
+            documentChecksums = ArtifactChecksums.of(content);
+            checksums = documentChecksums;
+        }
+        return documentChecksums;
+    }
+
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(content);
+    }
+
+    @Override
+    public String toString() {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package io.brinkmann.aem.maven.model;
+
+/**
+ * Result of resolving a request path against the repository layout of an {@link ArtifactIndex}.
+ * A path either points to a directory (group, artifact or version directory) or to a file inside of one.
+ */
+public class RepositoryPath {
+
+    public static final RepositoryPath NOT_FOUND = new RepositoryPath(null, null, null);
+
+    private final ArtifactInformation artifact;
+
+    private final ArtifactMetadata metadata;
+
+    private final String fileName;
+
+    private RepositoryPath(ArtifactInformation artifact, ArtifactMetadata metadata, String fileName) {
+        this.artifact = artifact;
+        this.metadata = metadata;
+        this.fileName = fileName;
+    }
+
+    static RepositoryPath directory(ArtifactInformation artifact, ArtifactMetadata metadata) {
+        return new RepositoryPath(artifact, metadata, null);
+    }
+
+    static RepositoryPath file(ArtifactInformation artifact, ArtifactMetadata metadata, String fileName) {
+        return new RepositoryPath(artifact, metadata, fileName);
+    }
+
+    public boolean isFile() {
+        return fileName != null;
+    }
+
+    /**
+     * @return true in case the path is the version directory of an artifact or a file inside of it
+     */
+    public boolean isVersionPath() {
+        return artifact != null;
+    }
+
+    /**
+     * @return true in case the path is the artifact id directory listing the versions or a file inside of it
+     */
+    public boolean isArtifactPath() {
+        return metadata != null;
+    }
+
+    /**
+     * @return the metadata of the artifact id directory, null if the path isn't located in an artifact id directory
+     */
+    public ArtifactMetadata getArtifactMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return the artifact of the version directory, null if the path isn't located in a version directory
+     */
+    public ArtifactInformation getArtifact() {
+        return artifact;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+}
@@ -0,0 +1,146 @@
+package io.brinkmann.aem.maven.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single request to the repository, the time spent in each {@link Phase} and the number of bytes sent.
+ * A timer is used by one thread at a time, an asynchronous response hands it over to the thread completing it.
+ */
+public final class RequestTimer {
+
+    public enum Phase {
+        /**
+         * Resolving the request against the artifact index.
+         */
+        LOOKUP,
+        /**
+         * Building archives, checksums and documents.
+         */
+        BUILD,
+        /**
+         * Sending the response.
+         */
+        WRITE
+    }
+
+    public static final String FILE_TYPE_OTHER = "other";
+
+    private final String endpoint;
+
+    private final String path;
+
+    private final long startTime = System.nanoTime();
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+
+    private String fileType = FILE_TYPE_OTHER;
+
+    private Phase currentPhase;
+
+    private long phaseStartTime;
+
+    private long duration = -1;
+
+    private long bytes;
+
+    private boolean notFound;
+
+    private boolean rejected;
+
+    private boolean asynchronous;
+
+    public RequestTimer(String endpoint, String path) {
+        this.endpoint = endpoint;
+        this.path = path;
+    }
+
+    /**
+     * Ends the current phase and starts the given one.
+     */
+    public void startPhase(Phase phase) {
+        long now = System.nanoTime();
+        endPhase(now);
+        currentPhase = phase;
+        phaseStartTime = now;
+    }
+
+    /**
+     * Ends the current phase and the measurement of the request, further calls don't change the duration.
+     */
+    public void stop() {
+        if (duration < 0) {
+            long now = System.nanoTime();
+            endPhase(now);
+            duration = now - startTime;
+        }
+    }
+
+    private void endPhase(long now) {
+        if (currentPhase != null) {
+            phaseNanos[currentPhase.ordinal()] += now - phaseStartTime;
+            currentPhase = null;
+        }
+    }
+
+    public void addBytes(long bytes) {
+        this.bytes += bytes;
+    }
+
+    public void setFileType(String fileType) {
+        this.fileType = fileType;
+    }
+
+    public void setNotFound(boolean notFound) {
+        this.notFound = notFound;
+    }
+
+    /**
+     * @param asynchronous true in case the request is recorded once its asynchronous response is completed
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    public void setRejected(boolean rejected) {
+        this.rejected = rejected;
+    }
+
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getFileType() {
+        return fileType;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public boolean isNotFound() {
+        return notFound;
+    }
+
+    /**
+     * @return the duration of the request in milliseconds, up to now in case it's still running
+     */
+    public long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(duration >= 0 ? duration : System.nanoTime() - startTime);
+    }
+
+    public long getPhaseMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(phaseNanos[phase.ordinal()]);
+    }
+}
@@ -0,0 +1,48 @@
+package io.brinkmann.aem.maven.impl;
+
+import io.brinkmann.aem.maven.model.ArtifactComment;
+import io.brinkmann.aem.maven.model.ArtifactInformation;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the highest version of each group id and artifact id in the dependency list.
+ */
+public class DuplicateArtifactFilterTest extends TestCase {
+
+    public void testKeepsHighestVersion() {
+        ArtifactInformation foo10 = new ArtifactInformation("com.adobe", "foo", "1.0");
+        ArtifactInformation foo110 = new ArtifactInformation("com.adobe", "foo", "1.10");
+        ArtifactInformation foo19 = new ArtifactInformation("com.adobe", "foo", "1.9");
+        ArtifactInformation fooSnapshot = new ArtifactInformation("com.adobe", "foo", "1.10-SNAPSHOT");
+        ArtifactInformation otherFoo = new ArtifactInformation("org.apache", "foo", "0.1");
+        ArtifactInformation bar = new ArtifactInformation("com.adobe", "bar", "2.0");
+        Set<ArtifactInformation> dependencies = new TreeSet<>(Arrays.asList(foo10, foo110, foo19, fooSnapshot, otherFoo, bar));
+
+        assertEquals(3, DuplicateArtifactFilter.filter(dependencies));
+        assertEquals(new TreeSet<>(Arrays.asList(foo110, otherFoo, bar)), dependencies);
+    }
+
+    public void testKeepsEqualVersions() {
+        ArtifactInformation foo1 = new ArtifactInformation("com.adobe", "foo", "1");
+        ArtifactInformation foo100 = new ArtifactInformation("com.adobe", "foo", "1.0.0");
+        ArtifactInformation foo09 = new ArtifactInformation("com.adobe", "foo", "0.9");
+        Set<ArtifactInformation> dependencies = new TreeSet<>(Arrays.asList(foo1, foo100, foo09));
+
+        assertEquals(1, DuplicateArtifactFilter.filter(dependencies));
+        assertEquals(new TreeSet<>(Arrays.asList(foo1, foo100)), dependencies);
+    }
+
+    public void testPassesCommentsThrough() {
+        ArtifactInformation firstComment = new ArtifactComment("Bundle without exported artifact");
+        ArtifactInformation secondComment = new ArtifactComment("Another bundle without exported artifact");
+        ArtifactInformation foo = new ArtifactInformation("com.adobe", "foo", "1.0");
+        Set<ArtifactInformation> dependencies = new TreeSet<>(Arrays.asList(firstComment, secondComment, foo));
+
+        assertEquals(0, DuplicateArtifactFilter.filter(dependencies));
+        assertEquals(new TreeSet<>(Arrays.asList(firstComment, secondComment, foo)), dependencies);
+    }
+}
@@ -0,0 +1,162 @@
+package io.brinkmann.aem.maven.impl;
+
+import junit.framework.TestCase;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Conditional requests, single byte ranges and gzip negotiation as seen by Maven clients.
+ */
+public class HttpConditionsTest extends TestCase {
+
+    private static final String ETAG = "\"7-1457600000000\"";
+
+    private static final long LAST_MODIFIED = 1457600000000L;
+
+    private static final String LAST_MODIFIED_DATE = "Thu, 10 Mar 2016 08:53:20 GMT";
+
+    private static final String EARLIER_DATE = "Wed, 09 Mar 2016 08:53:20 GMT";
+
+    private static final long SIZE = 1000;
+
+    /**
+     * Range header, expected first and last byte position, null for the whole file or "unsatisfiable".
+     */
+    private static final Object[][] RANGES = {
+            {"bytes=0-499", new long[]{0, 499}},
+            {"bytes=500-", new long[]{500, 999}},
+            {"bytes=900-2000", new long[]{900, 999}},
+            {"bytes=-100", new long[]{900, 999}},
+            {"bytes=-2000", new long[]{0, 999}},
+            {"bytes=999-999", new long[]{999, 999}},
+            {"bytes=1000-", "unsatisfiable"},
+            {"bytes=1000-1100", "unsatisfiable"},
+            {"bytes=-0", "unsatisfiable"},
+            {"bytes=5-2", null},
+            {"bytes=abc", null},
+            {"bytes=a-b", null},
+            {"bytes=-", null},
+            {"bytes=--5", null},
+            {"bytes=+5-10", null},
+            {"bytes=0-1,5-6", null},
+            {"items=0-5", null},
+            {"bytes=99999999999999999999-", null},
+    };
+
+    /**
+     * Accept-Encoding header and whether the gzipped content is sent.
+     */
+    private static final Object[][] ACCEPT_ENCODINGS = {
+            {"gzip", true},
+            {"GZIP", true},
+            {"x-gzip", true},
+            {"deflate, gzip;q=0.5", true},
+            {"gzip;q=0", false},
+            {"gzip; q=0.0", false},
+            {"*", true},
+            {"*;q=0", false},
+            {"*;q=0, gzip", true},
+            {"gzip;q=0, *", false},
+            {"identity", false},
+            {"", false},
+    };
+
+    public void testNotModifiedByETag() {
+        assertTrue(HttpConditions.isNotModified(request("If-None-Match", ETAG), ETAG, LAST_MODIFIED));
+        assertTrue(HttpConditions.isNotModified(request("If-None-Match", "\"other\", " + ETAG), ETAG, LAST_MODIFIED));
+        assertTrue(HttpConditions.isNotModified(request("If-None-Match", "W/" + ETAG), ETAG, LAST_MODIFIED));
+        assertTrue(HttpConditions.isNotModified(request("If-None-Match", "*"), ETAG, LAST_MODIFIED));
+        assertFalse(HttpConditions.isNotModified(request("If-None-Match", "\"other\""), ETAG, LAST_MODIFIED));
+    }
+
+    public void testETagTakesPrecedenceOverDate() {
+        assertFalse(HttpConditions.isNotModified(request("If-None-Match", "\"other\"", "If-Modified-Since", LAST_MODIFIED_DATE), ETAG, LAST_MODIFIED));
+    }
+
+    public void testNotModifiedByDate() {
+        assertTrue(HttpConditions.isNotModified(request("If-Modified-Since", LAST_MODIFIED_DATE), ETAG, LAST_MODIFIED));
+        assertTrue(HttpConditions.isNotModified(request("If-Modified-Since", LAST_MODIFIED_DATE), ETAG, LAST_MODIFIED + 999));
+        assertFalse(HttpConditions.isNotModified(request("If-Modified-Since", EARLIER_DATE), ETAG, LAST_MODIFIED));
+        assertFalse(HttpConditions.isNotModified(request("If-Modified-Since", LAST_MODIFIED_DATE), ETAG, -1));
+        assertFalse(HttpConditions.isNotModified(request("If-Modified-Since", "yesterday"), ETAG, LAST_MODIFIED));
+        assertFalse(HttpConditions.isNotModified(request(), ETAG, LAST_MODIFIED));
+    }
+
+    public void testRanges() {
+        for (Object[] range : RANGES) {
+            long[] result = HttpConditions.getRange(request("Range", range[0]), ETAG, LAST_MODIFIED, SIZE);
+            if (range[1] == null) {
+                assertNull(range[0] + " should send the whole file", result);
+            } else if (range[1] instanceof String) {
+                assertSame(range[0] + " should be unsatisfiable", HttpConditions.UNSATISFIABLE_RANGE, result);
+            } else {
+                assertTrue(range[0] + " resolved to " + Arrays.toString(result), Arrays.equals((long[]) range[1], result));
+            }
+        }
+    }
+
+    public void testRangeOfEmptyFile() {
+        assertSame(HttpConditions.UNSATISFIABLE_RANGE, HttpConditions.getRange(request("Range", "bytes=0-"), ETAG, LAST_MODIFIED, 0));
+        assertSame(HttpConditions.UNSATISFIABLE_RANGE, HttpConditions.getRange(request("Range", "bytes=-5"), ETAG, LAST_MODIFIED, 0));
+    }
+
+    public void testIfRange() {
+        assertNotNull(HttpConditions.getRange(request("Range", "bytes=0-9", "If-Range", ETAG), ETAG, LAST_MODIFIED, SIZE));
+        assertNull(HttpConditions.getRange(request("Range", "bytes=0-9", "If-Range", "\"other\""), ETAG, LAST_MODIFIED, SIZE));
+        assertNull(HttpConditions.getRange(request("Range", "bytes=0-9", "If-Range", "W/" + ETAG), ETAG, LAST_MODIFIED, SIZE));
+        assertNotNull(HttpConditions.getRange(request("Range", "bytes=0-9", "If-Range", LAST_MODIFIED_DATE), ETAG, LAST_MODIFIED, SIZE));
+        assertNull(HttpConditions.getRange(request("Range", "bytes=0-9", "If-Range", EARLIER_DATE), ETAG, LAST_MODIFIED, SIZE));
+        assertNull(HttpConditions.getRange(request("Range", "bytes=0-9", "If-Range", "yesterday"), ETAG, LAST_MODIFIED, SIZE));
+    }
+
+    public void testAcceptsGzip() {
+        for (Object[] acceptEncoding : ACCEPT_ENCODINGS) {
+            assertEquals("Accept-Encoding: " + acceptEncoding[0], acceptEncoding[1], HttpConditions.acceptsGzip(request("Accept-Encoding", acceptEncoding[0])));
+        }
+        assertFalse(HttpConditions.acceptsGzip(request()));
+    }
+
+    /**
+     * @param headers header names and values
+     */
+    private static HttpServletRequest request(Object... headers) {
+        final Map<String, String> headerValues = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            headerValues.put((String) headers[i], (String) headers[i + 1]);
+        }
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpConditionsTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String value = args != null && args.length == 1 ? headerValues.get(args[0]) : null;
+                switch (method.getName()) {
+                    case "getHeader":
+                        return value;
+                    case "getDateHeader":
+                        return value != null ? parseDate(value) : -1L;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static long parseDate(String date) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(date).getTime();
+        } catch (ParseException ex) {
+            throw new IllegalArgumentException(date);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.brinkmann.aem.maven.impl;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Archives written by {@link TarArchiveWriter} read back with a minimal ustar/pax header parser.
+ */
+public class TarArchiveWriterTest extends TestCase {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final long TIME = 1457600000000L;
+
+    public void testRoundTrip() throws IOException {
+        StringBuilder segment = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            segment.append("segment").append(i);
+        }
+        String shortName = "com/example/bundle-1.0.pom";
+        String prefixedName = segment + "/" + segment + "/bundle-1.0.jar";
+        String paxName = "com/example/" + segment + segment + segment + "-\u00fc-1.0.jar";
+        byte[] pom = "<project/>".getBytes(StandardCharsets.UTF_8);
+        byte[] jar = new byte[BLOCK_SIZE + 1];
+        Arrays.fill(jar, (byte) 'j');
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TarArchiveWriter writer = new TarArchiveWriter(archive);
+        writer.putEntry(shortName, TIME, pom, pom.length);
+        writer.putEntry(prefixedName, TIME, jar, jar.length);
+        writer.putEntryHeader(paxName, TIME, pom.length);
+        writer.getEntryOutput().write(pom);
+        writer.closeEntry();
+        writer.finish();
+
+        List<Object[]> entries = read(archive.toByteArray());
+        assertEquals(3, entries.size());
+        assertEntry(entries.get(0), shortName, pom);
+        assertEntry(entries.get(1), prefixedName, jar);
+        assertEntry(entries.get(2), paxName, pom);
+    }
+
+    private static void assertEntry(Object[] entry, String name, byte[] content) {
+        assertEquals(name, entry[0]);
+        assertTrue(name, Arrays.equals(content, (byte[]) entry[1]));
+    }
+
+    /**
+     * @return name and content of the regular files in the archive
+     */
+    private static List<Object[]> read(byte[] archive) {
+        assertEquals(0, archive.length % BLOCK_SIZE);
+        List<Object[]> entries = new ArrayList<>();
+        String paxPath = null;
+        int offset = 0;
+        while (archive[offset] != 0) {
+            assertEquals(parseOctal(archive, offset + 148, 8), checksum(archive, offset));
+            assertEquals(TIME / 1000, parseOctal(archive, offset + 136, 12));
+            assertEquals("ustar", parseString(archive, offset + 257, 6));
+
+            String name = parseString(archive, offset + 0, 100);
+            String prefix = parseString(archive, offset + 345, 155);
+            int size = (int) parseOctal(archive, offset + 124, 12);
+            byte type = archive[offset + 156];
+            byte[] data = Arrays.copyOfRange(archive, offset + BLOCK_SIZE, offset + BLOCK_SIZE + size);
+            offset += BLOCK_SIZE + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+
+            if (type == 'x') {
+                paxPath = parsePaxPath(data);
+            } else {
+                assertEquals('0', type);
+                entries.add(new Object[]{paxPath != null ? paxPath : prefix.isEmpty() ? name : prefix + "/" + name, data});
+                paxPath = null;
+            }
+        }
+        assertEquals(archive.length, offset + 2 * BLOCK_SIZE);
+        return entries;
+    }
+
+    /**
+     * Parses the "length key=value\n" records, the length includes the length digits themselves.
+     */
+    private static String parsePaxPath(byte[] data) {
+        String path = null;
+        int offset = 0;
+        while (offset < data.length) {
+            int space = offset;
+            while (data[space] != ' ') {
+                space++;
+            }
+            int length = Integer.parseInt(new String(data, offset, space - offset, StandardCharsets.US_ASCII));
+            assertEquals('\n', data[offset + length - 1]);
+            String record = new String(data, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                path = record.substring("path=".length());
+            }
+            offset += length;
+        }
+        return path;
+    }
+
+    private static long checksum(byte[] archive, int offset) {
+        long checksum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            checksum += i >= 148 && i < 156 ? ' ' : archive[offset + i] & 0xff;
+        }
+        return checksum;
+    }
+
+    private static long parseOctal(byte[] archive, int offset, int length) {
+        return Long.parseLong(parseString(archive, offset, length).trim(), 8);
+    }
+
+    private static String parseString(byte[] archive, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && archive[end] != 0) {
+            end++;
+        }
+        return new String(archive, offset, end - offset, StandardCharsets.UTF_8);
+    }
+}
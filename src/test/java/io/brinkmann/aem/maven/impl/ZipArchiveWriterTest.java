@@ -0,0 +1,113 @@
+package io.brinkmann.aem.maven.impl;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Archives written by {@link ZipArchiveWriter} read back with {@link ZipInputStream}.
+ */
+public class ZipArchiveWriterTest extends TestCase {
+
+    private static final long TIME = 1457600000000L;
+
+    public void testRoundTrip() throws IOException {
+        byte[] pom = "<project/>".getBytes(StandardCharsets.UTF_8);
+        byte[] jar = new byte[10000];
+        for (int i = 0; i < jar.length; i++) {
+            jar[i] = (byte) (i % 7);
+        }
+        byte[] deflatedJar = deflate(jar);
+        byte[] streamed = "streamed".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipArchiveWriter writer = new ZipArchiveWriter(archive);
+        writer.putEntry("com/example/", TIME, ZipArchiveWriter.METHOD_STORED, 0, 0, new byte[0], 0);
+        writer.putEntry("com/example/b\u00fcndle-1.0.pom", TIME, ZipArchiveWriter.METHOD_STORED, crc(pom), pom.length, pom, pom.length);
+        writer.putEntry("com/example/b\u00fcndle-1.0.jar", TIME, ZipArchiveWriter.METHOD_DEFLATED, crc(jar), jar.length, deflatedJar, deflatedJar.length);
+        writer.putEntryHeader("com/example/streamed.txt", TIME, ZipArchiveWriter.METHOD_STORED, crc(streamed), streamed.length, streamed.length);
+        writer.getEntryOutput().write(streamed);
+        writer.finish();
+
+        try (ZipInputStream input = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()), StandardCharsets.UTF_8)) {
+            ZipEntry directory = input.getNextEntry();
+            assertEquals("com/example/", directory.getName());
+            assertTrue(directory.isDirectory());
+            assertEntry(input, "com/example/b\u00fcndle-1.0.pom", ZipEntry.STORED, pom);
+            assertEntry(input, "com/example/b\u00fcndle-1.0.jar", ZipEntry.DEFLATED, jar);
+            assertEntry(input, "com/example/streamed.txt", ZipEntry.STORED, streamed);
+            assertNull(input.getNextEntry());
+        }
+    }
+
+    public void testOutputIsNotClosed() throws IOException {
+        final boolean[] closed = new boolean[1];
+        OutputStream output = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        ZipArchiveWriter writer = new ZipArchiveWriter(output);
+        writer.putEntry("empty.txt", TIME, ZipArchiveWriter.METHOD_STORED, 0, 0, new byte[0], 0);
+        writer.finish();
+        assertFalse(closed[0]);
+    }
+
+    public void testTooLargeEntryFails() throws IOException {
+        ZipArchiveWriter writer = new ZipArchiveWriter(new ByteArrayOutputStream());
+        try {
+            writer.putEntryHeader("huge.bin", TIME, ZipArchiveWriter.METHOD_STORED, 0, 0x100000000L, 0x100000000L);
+            fail("ZIP64 sizes aren't supported");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("huge.bin"));
+        }
+    }
+
+    private static void assertEntry(ZipInputStream input, String name, int method, byte[] content) throws IOException {
+        ZipEntry entry = input.getNextEntry();
+        assertEquals(name, entry.getName());
+        assertEquals(name, method, entry.getMethod());
+        assertEquals(name, TIME / 2000, entry.getTime() / 2000);
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            data.write(buffer, 0, read);
+        }
+        assertTrue(name, Arrays.equals(content, data.toByteArray()));
+        assertEquals(name, crc(content), entry.getCrc());
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                deflated.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static long crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,82 @@
+package io.brinkmann.aem.maven.model;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Resolves request paths through the repository layout of the index.
+ */
+public class ArtifactIndexTest extends TestCase {
+
+    private static final String REPOSITORY_PATH = "/bin/maven/repository";
+
+    private static final ArtifactInformation FOO_1_0 = new ArtifactInformation("com.adobe", "foo", "1.0");
+
+    private static final ArtifactInformation FOO_1_1 = new ArtifactInformation("com.adobe", "foo", "1.1");
+
+    private static final ArtifactInformation BAR_2_0 = new ArtifactInformation("com.adobe.bar", "bar", "2.0");
+
+    private final ArtifactIndex index = new ArtifactIndex(1, new TreeSet<>(Arrays.asList(FOO_1_0, FOO_1_1, BAR_2_0)));
+
+    public void testVersionFiles() {
+        assertVersionFile("/com/adobe/foo/1.0/foo-1.0.jar", FOO_1_0);
+        assertVersionFile("/com/adobe/foo/1.1/foo-1.1.pom", FOO_1_1);
+        assertVersionFile("/com/adobe/foo/1.1/foo-1.1.jar.sha1", FOO_1_1);
+        assertVersionFile("/com/adobe/foo/1.0/maven-metadata.xml", FOO_1_0);
+        assertVersionFile("/com/adobe/bar/bar/2.0/bar-2.0.jar", BAR_2_0);
+        assertVersionFile("//com/adobe/foo/1.0/foo-1.0.jar", FOO_1_0);
+    }
+
+    public void testArtifactMetadata() {
+        RepositoryPath path = resolve("/com/adobe/foo/maven-metadata.xml");
+        assertTrue(path.isFile());
+        assertTrue(path.isArtifactPath());
+        assertFalse(path.isVersionPath());
+        assertEquals("maven-metadata.xml", path.getFileName());
+        assertEquals(Arrays.asList("1.0", "1.1"), path.getArtifactMetadata().getVersions());
+    }
+
+    public void testDirectories() {
+        RepositoryPath versionDirectory = resolve("/com/adobe/foo/1.0/");
+        assertFalse(versionDirectory.isFile());
+        assertSame(FOO_1_0, versionDirectory.getArtifact());
+
+        RepositoryPath groupDirectory = resolve("/com/adobe");
+        assertFalse(groupDirectory.isFile());
+        assertFalse(groupDirectory.isArtifactPath());
+        assertFalse(groupDirectory.isVersionPath());
+    }
+
+    public void testUnknownPaths() {
+        assertNotFound("/org/adobe/foo/1.0/foo-1.0.jar");
+        assertNotFound("/com/adobe/baz/1.0/baz-1.0.jar");
+        assertNotFound("/com/adobe/foo/2.0/foo-2.0.jar");
+        assertNotFound("/com/adobe/foo/1.0/extra/foo-1.0.jar");
+        assertNotFound("/com/adobe/foo/1.0/foo-1.0.jar/extra");
+        assertNotFound("/com/adobe/foo/1.0/bar-1.0.jar");
+        assertNotFound("/com/adobe/foo/1.0/foo-1.1.jar");
+        assertNotFound("/com/adobe/foo/1.0/foo-1.0");
+        assertNotFound("/com/adobe/foo/1.0/foo-1.0-sources.jar");
+        assertNotFound("/com/adobe/foo/1.0/anything.jar");
+    }
+
+    private void assertVersionFile(String path, ArtifactInformation artifact) {
+        RepositoryPath repositoryPath = resolve(path);
+        assertTrue(path, repositoryPath.isFile());
+        assertTrue(path, repositoryPath.isVersionPath());
+        assertSame(path, artifact, repositoryPath.getArtifact());
+        assertEquals(path, path.substring(path.lastIndexOf('/') + 1), repositoryPath.getFileName());
+    }
+
+    private void assertNotFound(String path) {
+        RepositoryPath repositoryPath = resolve(path);
+        assertFalse(path, repositoryPath.isFile());
+        assertFalse(path, repositoryPath.isVersionPath());
+    }
+
+    private RepositoryPath resolve(String path) {
+        return index.resolve(REPOSITORY_PATH + path, REPOSITORY_PATH.length());
+    }
+}
@@ -0,0 +1,68 @@
+package io.brinkmann.aem.maven.model;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares versions in the order of <code>ComparableVersion</code> of Maven 3.9.
+ */
+public class MavenVersionTest extends TestCase {
+
+    /**
+     * Each version is smaller than the next one of its row.
+     */
+    private static final String[][] ASCENDING_VERSIONS = {
+            {"1.0-alpha-1", "1.0-beta-1", "1.0-milestone-1", "1.0-rc-1", "1.0-SNAPSHOT", "1.0", "1.0-sp-1"},
+            {"1.0-alpha-2", "1.0-alpha-10"},
+            {"1.0.0-SNAPSHOT", "1.0.0", "1.0.0.R1234", "1.0.0.R1235", "1.0.0.v20160310", "1.0.1"},
+            {"1.0-sp-1", "1.0.0.R1"},
+            {"2.4.0.v20160310-1200", "2.4.0.v20160311"},
+            {"1.6", "1.10"},
+    };
+
+    /**
+     * Both versions of a row are equal.
+     */
+    private static final String[][] EQUAL_VERSIONS = {
+            {"1", "1.0"},
+            {"1.0", "1.0.0"},
+            {"1.0.0.0", "1"},
+            {"1.0-ga", "1"},
+            {"1.0.0-final", "1"},
+            {"1.0-release", "1"},
+            {"1.0-SNAPSHOT", "1.0-snapshot"},
+            {"1.0-RC1", "1.0-cr-1"},
+            {"1.0-a1", "1.0-alpha-1"},
+            {"1.0-b2", "1.0-beta-2"},
+            {"1.0-m3", "1.0-milestone-3"},
+    };
+
+    public void testAscendingVersions() {
+        for (String[] versions : ASCENDING_VERSIONS) {
+            for (int i = 1; i < versions.length; i++) {
+                assertCompare(versions[i - 1], versions[i], -1);
+                assertCompare(versions[i], versions[i - 1], 1);
+            }
+        }
+    }
+
+    public void testEqualVersions() {
+        for (String[] versions : EQUAL_VERSIONS) {
+            assertCompare(versions[0], versions[1], 0);
+            assertCompare(versions[1], versions[0], 0);
+        }
+    }
+
+    public void testVersionNumbers() {
+        MavenVersion version = MavenVersion.valueOf("2.4.7.v20160310");
+        assertTrue(version.hasVersion());
+        assertEquals(2, version.getMajorVersion());
+        assertEquals(4, version.getMinorVersion());
+        assertEquals(7, version.getFixVersion());
+        assertFalse(MavenVersion.valueOf("").hasVersion());
+    }
+
+    private static void assertCompare(String version, String otherVersion, int expected) {
+        int result = Integer.signum(MavenVersion.valueOf(version).compareTo(MavenVersion.valueOf(otherVersion)));
+        assertEquals(version + " compared to " + otherVersion, expected, result);
+    }
+}